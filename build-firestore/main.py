@@ -15,7 +15,7 @@ from halo import Halo
 DEFAULT_BUCKET = 'web-searcher-cloud1'
 INVINDEX_OUTPUT = 'inv-index-output'
 PAGERANK_OUTPUT = 'page-rank-output'
-VALID_PART = re.compile('.*/part-r-[0-9]*$')
+VALID_PART = re.compile('.*/part-[mr]-[0-9]*$')
 VALID_WORD = re.compile('^[a-zA-Z0-9][a-zA-Z0-9-]*$')
 DOWNLOADS = 'downloads'
 BATCH_MAX_SIZE = 500
@@ -0,0 +1,142 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Binds bench.Targets to the job code, with the state a mapper or reducer
+ * would reuse between records.
+ */
+public class BenchTargets implements bench.Targets, CalcPageRank.MassSink {
+    private LinkExtractor extractor = new LinkExtractor();
+    private ArrayList<String> hrefs = new ArrayList<String>();
+    private LinkedHashSet<String> outLinks = new LinkedHashSet<String>();
+    private CrawlUrls.Resolver resolver = new CrawlUrls.Resolver(CrawlUrls.DEFAULT_CACHE_SIZE);
+
+    private ArrayList<String> words = new ArrayList<String>();
+    private WordTokenizer tokenizer = new WordTokenizer();
+    private TermCounter counter = new TermCounter();
+
+    private IntWritable id = new IntWritable();
+    private IntWritable outLinkId = new IntWritable();
+    private PageRankNode node = new PageRankNode();
+    private PageRankNode outRank = new PageRankNode();
+    private double[] masses = new double[1];
+    private DataOutput massOut;
+
+    private HashMap<String, Integer> urlCount = new HashMap<String, Integer>();
+
+    @Override
+    public String urlFromPath(String path) {
+        return CrawlUrls.urlFromPath(path);
+    }
+
+    @Override
+    public String resolve(String baseUrl, String href) {
+        return CrawlUrls.resolve(baseUrl, href);
+    }
+
+    @Override
+    public void setBase(String baseUrl) {
+        resolver.setBase(baseUrl);
+    }
+
+    @Override
+    public String resolveCached(String href) {
+        return resolver.resolve(href);
+    }
+
+    @Override
+    public int outLinks(String selfUrl, byte[] page) {
+        hrefs.clear();
+        outLinks.clear();
+        extractor.extract(page, page.length, hrefs);
+        InitPageRank.collectOutLinks(resolver, selfUrl, hrefs, outLinks);
+        return outLinks.size();
+    }
+
+    @Override
+    public String pageText(Text page) {
+        return CrawlPages.parse(page).body().text();
+    }
+
+    @Override
+    public int collectWords(String text) {
+        words.clear();
+        InvertedIndex.collectWords(text, words);
+        return words.size();
+    }
+
+    @Override
+    public int countWords(String text) {
+        counter.clear();
+        tokenizer.countWords(text, counter);
+        return counter.size();
+    }
+
+    @Override
+    public void writeNode(DataOutput out, int nodeId, double rank, int[] nodeOutLinks, int outDegree) throws IOException {
+        node.setStructure(rank);
+        for (int i = 0; i < outDegree; ++i)
+            node.addOutLink(nodeOutLinks[i]);
+
+        id.set(nodeId);
+        id.write(out);
+        node.write(out);
+    }
+
+    @Override
+    public Writable newNode() {
+        return new PageRankNode();
+    }
+
+    @Override
+    public int outDegree(Writable node) {
+        return ((PageRankNode) node).getOutDegree();
+    }
+
+    @Override
+    public void fanOut(Writable value, DataOutput out) throws IOException {
+        PageRankNode node = (PageRankNode) value;
+        massOut = out;
+        try {
+            CalcPageRank.fanOut(node, 1, false, masses, outRank, this);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        node.write(out);
+    }
+
+    // What context.write does with the mass records of MapOp, without the sort buffer
+    @Override
+    public void send(int outLink, PageRankNode mass) throws IOException {
+        outLinkId.set(outLink);
+        outLinkId.write(massOut);
+        mass.write(massOut);
+    }
+
+    @Override
+    public Writable newUrlCount(String url, int count) {
+        UrlCount value = new UrlCount();
+        value.set(new Text(url), count);
+        return value;
+    }
+
+    @Override
+    public String joinPaths(List<Text> values) {
+        return InvertedIndex.joinPostings(values);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String joinCounts(List<? extends Writable> values) {
+        return InvertedIndex.joinCounts((List<UrlCount>) values, urlCount);
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import bench.BenchData;
+
+/**
+ * Generates a synthetic crawl laid out like the httrack mirror
+ * (web-offline/<domain>/...html) and runs InvertedIndex and PageRank on it
+ * with the local job runner, reporting per stage and per job: wall time,
+ * map and reduce records, shuffle bytes and peak heap.
+ *
+ * Pages have Zipf distributed words (harness.vocabulary words) and power
+ * law out and in degrees, see BenchData. Everything runs in this JVM, so
+ * -Xmx bounds the jobs like a task container would.
+ */
+public class LocalHarness {
+    public static final String VOCABULARY = "harness.vocabulary";
+    public static final int DEFAULT_VOCABULARY = 50000;
+
+    public static final String ITERATIONS = "harness.iterations";
+    public static final int DEFAULT_ITERATIONS = 10;
+
+    private static final long MB = 1024 * 1024;
+
+    private static class Stage {
+        final String name;
+        final long millis;
+        final long peakHeap;
+        final List<JobRuns.Run> runs;
+
+        Stage(String name, long millis, long peakHeap, List<JobRuns.Run> runs) {
+            this.name = name;
+            this.millis = millis;
+            this.peakHeap = peakHeap;
+            this.runs = runs;
+        }
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pools.add(pool);
+        }
+
+        return pools;
+    }
+
+    private static Stage runStage(String name, Body body) throws Exception {
+        List<MemoryPoolMXBean> pools = heapPools();
+        System.gc();
+        for (MemoryPoolMXBean pool : pools)
+            pool.resetPeakUsage();
+        JobRuns.drain();
+
+        long start = System.nanoTime();
+        body.run();
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        // Pools peak at different times, so this is an upper bound
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : pools)
+            peakHeap += pool.getPeakUsage().getUsed();
+
+        return new Stage(name, millis, peakHeap, JobRuns.drain());
+    }
+
+    /**
+     * Writes the crawl, returns its size in bytes.
+     */
+    private static long generate(File crawlDir, int pages, int vocabulary) throws IOException {
+        Random random = new Random(BenchData.SEED);
+        BenchData.Zipf words = new BenchData.Zipf(vocabulary, 1.0, random);
+        BenchData.Zipf targets = new BenchData.Zipf(pages, 0.8, random);
+
+        long bytes = 0;
+        for (int page = 0; page < pages; ++page) {
+            File file = new File(crawlDir, BenchData.pageUrl(page) + ".html");
+            file.getParentFile().mkdirs();
+
+            byte[] html = BenchData.page(random, words, targets, page).getBytes(StandardCharsets.UTF_8);
+            Files.write(file.toPath(), html);
+            bytes += html.length;
+        }
+
+        return bytes;
+    }
+
+    private static long sum(List<JobRuns.Run> runs, TaskCounter counter) {
+        long total = 0;
+        for (JobRuns.Run run : runs)
+            total += value(run.counters, counter);
+
+        return total;
+    }
+
+    private static long value(Counters counters, TaskCounter counter) {
+        return counters == null ? 0 : counters.findCounter(counter).getValue();
+    }
+
+    private static void printRow(String name, long millis, long mapIn, long mapOut, long reduceIn, long reduceOut,
+            long shuffleBytes, String peakHeap) {
+        System.out.printf("%-28s %10d %12d %12d %12d %12d %12d %10s%n",
+                name, millis, mapIn, mapOut, reduceIn, reduceOut, shuffleBytes / 1024, peakHeap);
+    }
+
+    private static void report(List<Stage> stages) {
+        System.out.printf("%n%-28s %10s %12s %12s %12s %12s %12s %10s%n",
+                "stage / job", "wall ms", "map in", "map out", "reduce in", "reduce out", "shuffle KB", "heap MB");
+
+        for (Stage stage : stages) {
+            List<JobRuns.Run> runs = stage.runs;
+            printRow(stage.name, stage.millis,
+                    sum(runs, TaskCounter.MAP_INPUT_RECORDS), sum(runs, TaskCounter.MAP_OUTPUT_RECORDS),
+                    sum(runs, TaskCounter.REDUCE_INPUT_RECORDS), sum(runs, TaskCounter.REDUCE_OUTPUT_RECORDS),
+                    sum(runs, TaskCounter.REDUCE_SHUFFLE_BYTES), String.valueOf(stage.peakHeap / MB));
+
+            for (JobRuns.Run run : runs) {
+                printRow("  " + run.name + (run.success ? "" : " (failed)"), run.millis,
+                        value(run.counters, TaskCounter.MAP_INPUT_RECORDS), value(run.counters, TaskCounter.MAP_OUTPUT_RECORDS),
+                        value(run.counters, TaskCounter.REDUCE_INPUT_RECORDS), value(run.counters, TaskCounter.REDUCE_OUTPUT_RECORDS),
+                        value(run.counters, TaskCounter.REDUCE_SHUFFLE_BYTES), "");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D harness.vocabulary=<words>] [-D harness.iterations=<iterations>]");
+            System.out.println("           [-D pagerank.local.max-edges=<edges>]");
+            System.out.println("           <work-dir> <pages>");
+            return;
+        }
+
+        // Everything in this JVM, on the local file system
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+
+        File workDir = new File(args[0]).getAbsoluteFile();
+        if (workDir.exists())
+            throw new IOException("Work directory " + workDir + " already exists");
+
+        int pages = Integer.parseUnsignedInt(args[1]);
+        int vocabulary = conf.getInt(VOCABULARY, DEFAULT_VOCABULARY);
+        int iterations = conf.getInt(ITERATIONS, DEFAULT_ITERATIONS);
+
+        File crawlDir = new File(workDir, "web-offline");
+        Path crawlPath = new Path(crawlDir.toURI());
+        Path workPath = new Path(workDir.toURI());
+
+        List<Stage> stages = new ArrayList<Stage>();
+        long[] crawlBytes = new long[1];
+        stages.add(runStage("generate", () -> crawlBytes[0] = generate(crawlDir, pages, vocabulary)));
+        System.out.printf("Generated %d pages, %d MB%n", pages, crawlBytes[0] / MB);
+
+        stages.add(runStage("inverted-index",
+                () -> JobRuns.waitForSuccess(InvertedIndex.createJob(conf, crawlPath, new Path(workPath, "inv-index")))));
+
+        // The MR iterations, not LocalPageRank, unless asked for
+        Configuration rankConf = new Configuration(conf);
+        rankConf.setLong(PageRank.LOCAL_MAX_EDGES, conf.getLong(PageRank.LOCAL_MAX_EDGES, -1));
+        stages.add(runStage("page-rank", () -> PageRank.run(rankConf, crawlPath, new Path(workPath, "page-rank-temp"),
+                new Path(workPath, "page-rank"), iterations)));
+
+        report(stages);
+    }
+}
@@ -0,0 +1,248 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Synthetic inputs for the benchmarks, shaped like the httrack mirror the
+ * jobs read: words and link targets are Zipf distributed, out-degrees follow
+ * a power law. Everything is derived from a fixed seed so runs compare.
+ */
+public class BenchData {
+    public static final long SEED = 42;
+
+    private static final String[] DOMAINS = {
+        "www.example.com", "blog.example.org", "news.site.net", "docs.project.io", "shop.store.com",
+    };
+    private static final String[] PUNCTUATION = { "", "", "", "", ",", ".", ";", "!", "?", ")" };
+
+    /**
+     * Samples 0..n-1 with probability proportional to 1 / (i + 1)^s.
+     */
+    public static class Zipf {
+        private final double[] cumulative;
+        private final Random random;
+
+        public Zipf(int n, double s, Random random) {
+            this.random = random;
+            cumulative = new double[n];
+
+            double sum = 0;
+            for (int i = 0; i < n; ++i) {
+                sum += 1 / Math.pow(i + 1, s);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; ++i)
+                cumulative[i] /= sum;
+        }
+
+        public int next() {
+            double u = random.nextDouble();
+            int lo = 0;
+            int hi = cumulative.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < u)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+
+            return lo;
+        }
+    }
+
+    /**
+     * Out-degree with a power law tail (pareto, alpha 1.5), at least 1.
+     */
+    public static int outDegree(Random random, int max) {
+        double degree = 3 * Math.pow(1 - random.nextDouble(), -1 / 1.5);
+        return (int) Math.min(max, Math.max(1, degree));
+    }
+
+    public static String word(int w) {
+        // Short common words, longer rare ones
+        StringBuilder word = new StringBuilder();
+        int value = w;
+        do {
+            word.append((char) ('a' + value % 26));
+            value /= 26;
+        } while (value != 0);
+
+        return word.append("word".substring(0, Math.min(4, w % 5))).toString();
+    }
+
+    public static String domain(int page) {
+        return DOMAINS[page % DOMAINS.length];
+    }
+
+    public static String pageUrl(int page) {
+        return domain(page) + "/section" + (page % 17) + "/page" + page;
+    }
+
+    /**
+     * Path of a page as seen by the mappers, the key of WholeFileInputFormat.
+     */
+    public static String pagePath(int page) {
+        return "hdfs://namenode:8020/user/crawler/web-offline/" + pageUrl(page) + ".html";
+    }
+
+    /**
+     * An href as found in the mirror: relative, root relative or absolute,
+     * sometimes with a query, plus the occasional one that isn't a link to a
+     * page. Links resolve to the url of the target page, relative ones are
+     * only relative within its site (and section).
+     */
+    public static String href(Random random, Zipf targets, int self) {
+        int target = targets.next();
+        boolean sameSite = domain(target).equals(domain(self));
+        switch (random.nextInt(10)) {
+            case 0:
+                if (sameSite)
+                    return "/section" + (target % 17) + "/page" + target;
+                return "http://" + pageUrl(target);
+            case 1:
+                if (sameSite && target % 17 == self % 17)
+                    return "page" + target + ".html";
+                if (sameSite)
+                    return "../section" + (target % 17) + "/page" + target + ".html";
+                return "http://" + pageUrl(target);
+            case 2:
+                return "http://" + pageUrl(target) + "?ref=" + self + "&utm_source=bench";
+            case 3:
+                return "https://" + pageUrl(target);
+            case 4:
+                return "#section" + (target % 5);
+            case 5:
+                return "mailto:contact@" + domain(target);
+            default:
+                return "http://" + pageUrl(target);
+        }
+    }
+
+    /**
+     * Body text of a page: sentences of Zipf words with some capitals,
+     * punctuation and tokens the tokenizer drops.
+     */
+    public static String text(Random random, Zipf words, int length) {
+        StringBuilder text = new StringBuilder(length * 8);
+        for (int i = 0; i < length; ++i) {
+            String word = word(words.next());
+            int kind = random.nextInt(40);
+            if (kind == 0)
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            else if (kind == 1)
+                word = "\"" + word + "\"";
+            else if (kind == 2)
+                word = word + "@" + word;
+            else if (kind == 3)
+                word = "(" + word + ")";
+            else if (kind == 4)
+                word = "a\u00f1o" + word;
+
+            text.append(word).append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]).append(' ');
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * A full html page, a few hundred words and a power law number of links.
+     * Link targets are drawn from targets, which makes in-degrees follow a
+     * power law too.
+     */
+    public static String page(Random random, Zipf words, Zipf targets, int page) {
+        StringBuilder html = new StringBuilder();
+        html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>")
+            .append(text(random, words, 6)).append("</title>\n")
+            .append("<script>var page = ").append(page).append("; if (a < b) { load(\"x\"); }</script>\n")
+            .append("<style>p { margin: 0 } a:hover { color: red }</style></head>\n<body>\n");
+
+        int links = outDegree(random, 200);
+        int paragraphs = 3 + random.nextInt(8);
+        for (int p = 0; p < paragraphs; ++p) {
+            html.append("<p class=\"text\">").append(text(random, words, 20 + random.nextInt(80)));
+            for (int l = p; l < links; l += paragraphs) {
+                html.append("<a href=\"").append(href(random, targets, page)).append("\">")
+                    .append(word(words.next())).append("</a> ");
+            }
+            html.append("</p>\n");
+        }
+
+        html.append("<!-- <a href=\"/commented\">no</a> -->\n</body></html>\n");
+        return html.toString();
+    }
+
+    public static String[] pages(int count, int vocabulary) {
+        Random random = new Random(SEED);
+        Zipf words = new Zipf(vocabulary, 1.0, random);
+        Zipf targets = new Zipf(count, 0.8, random);
+
+        String[] pages = new String[count];
+        for (int page = 0; page < count; ++page)
+            pages[page] = page(random, words, targets, page);
+
+        return pages;
+    }
+
+    public static String[] paths(int count) {
+        String[] paths = new String[count];
+        for (int page = 0; page < count; ++page)
+            paths[page] = pagePath(page);
+
+        return paths;
+    }
+
+    public static String[] hrefs(int count) {
+        Random random = new Random(SEED);
+        Zipf targets = new Zipf(count, 0.8, random);
+
+        String[] hrefs = new String[count];
+        for (int i = 0; i < count; ++i)
+            hrefs[i] = href(random, targets, i);
+
+        return hrefs;
+    }
+
+    /**
+     * An id graph partition like the one CalcPageRank reads, serialized as
+     * its SequenceFile records would be: (IntWritable id, PageRankNode).
+     */
+    public static DataOutputBuffer graph(Targets code, int nodes) throws IOException {
+        Random random = new Random(SEED);
+        Zipf targets = new Zipf(nodes, 0.8, random);
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        int[] outLinks = new int[500];
+        for (int v = 0; v < nodes; ++v) {
+            double rank = 0.15 + 0.3 * Math.pow(1 - random.nextDouble(), -1 / 1.5);
+            int degree = outDegree(random, outLinks.length);
+            for (int i = 0; i < degree; ++i)
+                outLinks[i] = targets.next();
+
+            code.writeNode(out, v, rank, outLinks, degree);
+        }
+
+        return out;
+    }
+
+    /**
+     * Values of a single word at the reducer without in-mapper counting: one
+     * url per occurrence, popular pages repeating the word more.
+     */
+    public static List<Text> occurrences(int count, int pages) {
+        Random random = new Random(SEED);
+        Zipf urls = new Zipf(pages, 1.1, random);
+
+        ArrayList<Text> values = new ArrayList<Text>(count);
+        for (int i = 0; i < count; ++i)
+            values.add(new Text(pageUrl(urls.next())));
+
+        return values;
+    }
+}
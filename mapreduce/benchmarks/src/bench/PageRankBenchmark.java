@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per node work of a CalcPageRank iteration outside of the framework:
+ * decoding the (id, PageRankNode) records of the graph, and the map side
+ * fan-out that serializes a mass record per out-link like the map output
+ * buffer does. Scores are per node.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PageRankBenchmark {
+    private static final int NODES = 16384;
+
+    private DataOutputBuffer graph;
+    private DataInputBuffer in = new DataInputBuffer();
+    private DataOutputBuffer out = new DataOutputBuffer();
+
+    private Targets code = Targets.load();
+    private IntWritable id = new IntWritable();
+    private Writable node = code.newNode();
+
+    @Setup
+    public void setup() throws IOException {
+        graph = BenchData.graph(code, NODES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public void readNodes(Blackhole bh) throws IOException {
+        in.reset(graph.getData(), graph.getLength());
+        for (int i = 0; i < NODES; ++i) {
+            id.readFields(in);
+            node.readFields(in);
+            bh.consume(code.outDegree(node));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NODES)
+    public void mapFanOut(Blackhole bh) throws IOException {
+        in.reset(graph.getData(), graph.getLength());
+        out.reset();
+        for (int i = 0; i < NODES; ++i) {
+            id.readFields(in);
+            node.readFields(in);
+            id.write(out);
+            code.fanOut(node, out);
+        }
+
+        bh.consume(out.getLength());
+    }
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reduce side aggregation of the InvertedIndex for a single word: one url
+ * per occurrence into PathsReducer, or (url, count) pairs into
+ * CountsReducer. Scores are per word (reduce call).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PostingsBenchmark {
+    // Occurrences of the word and pages it can appear in, a rare and a hot word
+    @Param({ "64", "65536" })
+    public int occurrences;
+
+    @Param({ "10000" })
+    public int pages;
+
+    private Targets code = Targets.load();
+    private List<Text> values;
+    private List<Writable> counts;
+
+    @Setup
+    public void setup() {
+        values = BenchData.occurrences(occurrences, pages);
+
+        // What the TermCountMapper would have sent for the same occurrences
+        HashMap<String, Integer> perUrl = new HashMap<String, Integer>();
+        for (Text value : values)
+            perUrl.merge(value.toString(), 1, Integer::sum);
+
+        counts = new ArrayList<Writable>(perUrl.size());
+        for (HashMap.Entry<String, Integer> entry : perUrl.entrySet())
+            counts.add(code.newUrlCount(entry.getKey(), entry.getValue()));
+    }
+
+    @Benchmark
+    public void pathsReducer(Blackhole bh) {
+        bh.consume(code.joinPaths(values));
+    }
+
+    @Benchmark
+    public void countsReducer(Blackhole bh) {
+        bh.consume(code.joinCounts(counts));
+    }
+}
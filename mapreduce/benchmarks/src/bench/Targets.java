@@ -0,0 +1,89 @@
+package bench;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The code under benchmark. JMH needs its benchmarks in a package while the
+ * jobs live in the default package, which can't be imported from one, so
+ * BenchTargets (default package) implements this and the benchmarks load it
+ * by name. Calls have a single implementation, the JIT inlines them.
+ */
+public interface Targets {
+    static Targets load() {
+        try {
+            return (Targets) Class.forName("BenchTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String urlFromPath(String path);
+
+    /**
+     * Canonical url of an href, without cache.
+     */
+    String resolve(String baseUrl, String href);
+
+    /**
+     * Page of the next resolveCached calls.
+     */
+    void setBase(String baseUrl);
+
+    /**
+     * Canonical url of an href through the LRU cache of the mappers.
+     */
+    String resolveCached(String href);
+
+    /**
+     * Out-links of a page like OutLinkMapper: streaming extraction, then
+     * resolution of the hrefs. Returns their number.
+     */
+    int outLinks(String selfUrl, byte[] page);
+
+    /**
+     * Body text of a page record, parsed from its bytes like the InvertedIndex mappers.
+     */
+    String pageText(Text page);
+
+    /**
+     * Words of a page with the regex rules of TokenizerMapper.
+     */
+    int collectWords(String text);
+
+    /**
+     * Distinct words of a page with WordTokenizer and TermCounter, like TermCountMapper.
+     */
+    int countWords(String text);
+
+    /**
+     * Writes an (IntWritable id, PageRankNode) record like the id graph ones.
+     */
+    void writeNode(DataOutput out, int id, double rank, int[] outLinks, int outDegree) throws IOException;
+
+    Writable newNode();
+
+    int outDegree(Writable node);
+
+    /**
+     * Writes the mass record of every out-link of a node, then the node,
+     * like MapOp without aggregation.
+     */
+    void fanOut(Writable node, DataOutput out) throws IOException;
+
+    Writable newUrlCount(String url, int count);
+
+    /**
+     * Postings line of a word like PathsReducer, one url per occurrence.
+     */
+    String joinPaths(List<Text> values);
+
+    /**
+     * Postings line of a word like CountsReducer, from UrlCount values.
+     */
+    String joinCounts(List<? extends Writable> values);
+}
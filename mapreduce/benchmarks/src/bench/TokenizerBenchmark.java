@@ -0,0 +1,91 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The InvertedIndex mapper loop on whole pages: extracting the body text
+ * with Jsoup, from a String or from the bytes of the record (CrawlPages),
+ * then tokenizing it with the regex rules (TokenizerMapper) or with
+ * WordTokenizer and TermCounter (TermCountMapper). Scores are per page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+    private static final int PAGES = 128;
+
+    @Param({ "2000", "50000" })
+    public int vocabulary;
+
+    private String[] pages;
+    private Text[] values;
+    private String[] texts;
+
+    private Targets code = Targets.load();
+
+    @Setup
+    public void setup() {
+        pages = BenchData.pages(PAGES, vocabulary);
+        values = new Text[PAGES];
+        texts = new String[PAGES];
+        for (int i = 0; i < PAGES; ++i) {
+            values[i] = new Text(pages[i]);
+            texts[i] = Jsoup.parse(pages[i]).body().text();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void jsoupText(Blackhole bh) {
+        for (String page : pages)
+            bh.consume(Jsoup.parse(page).body().text());
+    }
+
+    // What the mappers did with the record: a String of the bytes, then Jsoup
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void jsoupTextFromString(Blackhole bh) {
+        for (Text value : values)
+            bh.consume(Jsoup.parse(value.toString()).body().text());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void jsoupTextFromBytes(Blackhole bh) {
+        for (Text value : values)
+            bh.consume(code.pageText(value));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void regexCollectWords(Blackhole bh) {
+        for (String text : texts)
+            bh.consume(code.collectWords(text));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void wordTokenizerCount(Blackhole bh) {
+        for (String text : texts)
+            bh.consume(code.countWords(text));
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Url handling of the InitPageRank and InvertedIndex mappers: the url of a
+ * page from its path, href resolution (CrawlUrls, with and without the
+ * Resolver cache), and link extraction. Scores are per path, href or page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlBenchmark {
+    private static final int URLS = 4096;
+    private static final int PAGES = 256;
+    private static final String BASE_URL = "www.example.com/section3/page1";
+
+    private String[] paths;
+    private String[] hrefs;
+    private String[] validHrefs;
+    private byte[][] pages;
+    private String[] pageUrls;
+
+    private Targets code = Targets.load();
+
+    @Setup
+    public void setup() {
+        paths = BenchData.paths(URLS);
+        hrefs = BenchData.hrefs(URLS);
+
+        ArrayList<String> valid = new ArrayList<String>();
+        for (String href : hrefs) {
+            if (code.resolve(BASE_URL, href) != null)
+                valid.add(href);
+        }
+        validHrefs = new String[URLS];
+        for (int i = 0; i < URLS; ++i)
+            validHrefs[i] = valid.get(i % valid.size());
+
+        String[] html = BenchData.pages(PAGES, 20000);
+        pages = new byte[PAGES][];
+        pageUrls = new String[PAGES];
+        for (int i = 0; i < PAGES; ++i) {
+            pages[i] = html[i].getBytes(StandardCharsets.UTF_8);
+            pageUrls[i] = BenchData.pageUrl(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(URLS)
+    public void urlFromPath(Blackhole bh) {
+        for (String path : paths)
+            bh.consume(code.urlFromPath(path));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(URLS)
+    public void resolve(Blackhole bh) {
+        for (String href : hrefs)
+            bh.consume(code.resolve(BASE_URL, href));
+    }
+
+    // Hrefs repeat like navigation bars, most are found in the cache
+    @Benchmark
+    @OperationsPerInvocation(URLS)
+    public void resolveCached(Blackhole bh) {
+        code.setBase(BASE_URL);
+        for (String href : validHrefs)
+            bh.consume(code.resolveCached(href));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void outLinks(Blackhole bh) {
+        for (int i = 0; i < PAGES; ++i)
+            bh.consume(code.outLinks(pageUrls[i], pages[i]));
+    }
+}
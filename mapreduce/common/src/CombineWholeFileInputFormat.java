@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+
+/**
+ * Like WholeFileInputFormat, but packs many small files into each split (up
+ * to the max split size, grouped by node and rack) so a crawl of small pages
+ * doesn't need one map task per page.
+ */
+public class CombineWholeFileInputFormat extends CombineFileInputFormat<Object, Text> {
+    // Whether jobs read the crawl with this format instead of WholeFileInputFormat
+    public static final String COMBINE_INPUT = "crawl.input.combine";
+
+    public static final long DEFAULT_MAX_SPLIT_SIZE = 128 * 1024 * 1024;
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path filename) {
+        return false;
+    }
+
+    @Override
+    public RecordReader<Object, Text> createRecordReader(InputSplit inputSplit, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<Object, Text>((CombineFileSplit) inputSplit, context,
+                WholeFileRecordReader.class);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        // Without a max size every node would get a single split
+        if (job.getConfiguration().getLong(SPLIT_MAXSIZE, 0) == 0)
+            setMaxSplitSize(DEFAULT_MAX_SPLIT_SIZE);
+
+        return super.getSplits(job);
+    }
+}
@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Text;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * Decoding of the pages WholeFileRecordReader hands to the mappers, straight
+ * from the bytes of the value: the charset comes from a byte order mark or
+ * a meta charset in the first bytes of the page, utf-8 otherwise.
+ */
+public class CrawlPages {
+    // Bytes looked at for a meta charset, same as the html prescan
+    private static final int PRESCAN_BYTES = 1024;
+
+    private static boolean startsWith(byte[] bytes, int length, int... prefix) {
+        if (length < prefix.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; ++i) {
+            if ((bytes[i] & 0xff) != prefix[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean matchesAt(byte[] bytes, int end, int at, String ascii) {
+        if (at + ascii.length() > end)
+            return false;
+
+        for (int i = 0; i < ascii.length(); ++i) {
+            if (lower(bytes[at + i]) != ascii.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Charset of a page, utf-8 when it says nothing or names one the jvm
+     * doesn't have.
+     */
+    public static Charset charsetOf(byte[] bytes, int length) {
+        if (startsWith(bytes, length, 0xef, 0xbb, 0xbf))
+            return StandardCharsets.UTF_8;
+        if (startsWith(bytes, length, 0xfe, 0xff))
+            return StandardCharsets.UTF_16BE;
+        if (startsWith(bytes, length, 0xff, 0xfe))
+            return StandardCharsets.UTF_16LE;
+
+        // charset= of a <meta charset=...> or <meta http-equiv content="...; charset=...">
+        int end = Math.min(length, PRESCAN_BYTES);
+        for (int i = 0; i < end; ++i) {
+            if (!matchesAt(bytes, end, i, "charset"))
+                continue;
+
+            int at = i + 7;
+            while (at < end && (bytes[at] == ' ' || bytes[at] == '='))
+                at++;
+            while (at < end && (bytes[at] == '"' || bytes[at] == '\''))
+                at++;
+
+            int start = at;
+            while (at < end && bytes[at] != '"' && bytes[at] != '\'' && bytes[at] != ';' && bytes[at] != '>'
+                    && bytes[at] != '/' && bytes[at] > ' ')
+                at++;
+
+            if (at == start)
+                continue;
+
+            String name = new String(bytes, start, at - start, StandardCharsets.US_ASCII);
+            try {
+                if (Charset.isSupported(name))
+                    return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                // Not a charset name, keep looking
+            }
+        }
+
+        return StandardCharsets.UTF_8;
+    }
+
+    public static Charset charsetOf(Text page) {
+        return charsetOf(page.getBytes(), page.getLength());
+    }
+
+    // Length of the byte order mark the page starts with, which isn't text
+    private static int bomLength(Text page) {
+        byte[] bytes = page.getBytes();
+        int length = page.getLength();
+        if (startsWith(bytes, length, 0xef, 0xbb, 0xbf))
+            return 3;
+        if (startsWith(bytes, length, 0xfe, 0xff) || startsWith(bytes, length, 0xff, 0xfe))
+            return 2;
+
+        return 0;
+    }
+
+    /**
+     * Chars of the page, decoded once.
+     */
+    public static CharBuffer decode(Text page) {
+        int bom = bomLength(page);
+        return charsetOf(page).decode(ByteBuffer.wrap(page.getBytes(), bom, page.getLength() - bom));
+    }
+
+    /**
+     * Chars of the page as a String, decoded once from the bytes of the value.
+     */
+    public static String text(Text page) {
+        int bom = bomLength(page);
+        return new String(page.getBytes(), bom, page.getLength() - bom, charsetOf(page));
+    }
+
+    /**
+     * The Jsoup DOM of a page. Jsoup sizes its buffers to a String input,
+     * a Reader would get 32k chars of them per page whatever its size.
+     */
+    public static Document parse(Text page) {
+        return Jsoup.parse(text(page));
+    }
+}
@@ -0,0 +1,317 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Url helpers shared by every job that reads the httrack mirror.
+ *
+ * Pages and links are identified by the same canonical form, the url
+ * without scheme, query or fragment: `host[:port]/path`. The host is lower
+ * cased, default ports are dropped, `.` and `..` segments are resolved and,
+ * like httrack names the files of the mirror, `.html` is dropped and
+ * directories are their `index` page. So `http://WWW.Site.com:80/a/../b.html#top`
+ * and the page mirrored at `www.site.com/b.html` are both `www.site.com/b`.
+ */
+public class CrawlUrls {
+    // Hrefs a Resolver remembers, 0 disables its cache
+    public static final String CACHE_SIZE = "crawl.urls.cache-size";
+    public static final int DEFAULT_CACHE_SIZE = 8192;
+
+    private static final String HTML_EXT = ".html";
+    private static final String INDEX_PAGE = "index";
+
+    /**
+     * Url of the page stored at path, from the first directory with a dot
+     * in its name (the host) on.
+     */
+    public static String urlFromPath(String path) {
+        // Skip the scheme and authority of the file system
+        int start = 0;
+        int colon = path.indexOf(':');
+        if (colon >= 0 && colon < path.indexOf('/')) {
+            start = colon + 1;
+            if (path.startsWith("//", start))
+                start = Math.max(path.indexOf('/', start + 2), start + 2);
+        }
+
+        while (start < path.length()) {
+            int next = path.indexOf('/', start);
+            if (next < 0)
+                next = path.length();
+
+            int dot = path.indexOf('.', start);
+            if (dot >= 0 && dot < next)
+                break;
+            start = next + 1;
+        }
+
+        if (start >= path.length())
+            return "";
+
+        int slash = path.indexOf('/', start);
+        if (slash < 0)
+            slash = path.length();
+
+        StringBuilder url = new StringBuilder(path.length() - start);
+        if (!appendAuthority(url, path, start, slash))
+            return "";
+        appendPath(url, path, slash, path.length());
+        return url.toString();
+    }
+
+    private static boolean isSchemeChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+    }
+
+    // Index of the ':' ending the scheme of href, -1 if it has none
+    private static int schemeEnd(String href, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            char c = href.charAt(i);
+            if (c == ':')
+                return i > start ? i : -1;
+            if (!isSchemeChar(c))
+                return -1;
+        }
+
+        return -1;
+    }
+
+    private static boolean isHttp(String href, int start, int schemeEnd) {
+        int length = schemeEnd - start;
+        return (length == 4 && href.regionMatches(true, start, "http", 0, 4))
+                || (length == 5 && href.regionMatches(true, start, "https", 0, 5));
+    }
+
+    /**
+     * Appends the host (lower cased) and port (unless a default one) of the
+     * authority in [from, to) of s, returns false if there's no host.
+     */
+    private static boolean appendAuthority(StringBuilder url, String s, int from, int to) {
+        int at = s.lastIndexOf('@', to - 1);
+        if (at >= from)
+            from = at + 1;
+
+        int portStart = to;
+        for (int i = to - 1; i >= from; --i) {
+            char c = s.charAt(i);
+            if (c == ':') {
+                portStart = i;
+                break;
+            }
+            if (c < '0' || c > '9')
+                break;
+        }
+
+        if (portStart == from)
+            return false;
+
+        for (int i = from; i < portStart; ++i) {
+            char c = s.charAt(i);
+            url.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+
+        int portLength = to - portStart - 1;
+        boolean defaultPort = portLength <= 0
+                || (portLength == 2 && s.startsWith("80", portStart + 1))
+                || (portLength == 3 && s.startsWith("443", portStart + 1));
+        if (!defaultPort)
+            url.append(s, portStart, to);
+
+        return true;
+    }
+
+    /**
+     * Appends the path in [from, to) of s, which starts with a '/' (or is
+     * empty), with its dot segments resolved and httrack's file names.
+     */
+    private static void appendPath(StringBuilder url, String s, int from, int to) {
+        int root = url.length();
+
+        int i = from;
+        while (i < to) {
+            int next = s.indexOf('/', i + 1);
+            if (next < 0 || next > to)
+                next = to;
+
+            int length = next - i - 1;
+            boolean last = next == to;
+            if (length == 1 && s.charAt(i + 1) == '.') {
+                if (last)
+                    url.append('/');
+            } else if (length == 2 && s.charAt(i + 1) == '.' && s.charAt(i + 2) == '.') {
+                url.setLength(Math.max(root, url.lastIndexOf("/")));
+                if (last)
+                    url.append('/');
+            } else {
+                url.append(s, i, next);
+            }
+
+            i = next;
+        }
+
+        if (url.length() == root || url.charAt(url.length() - 1) == '/') {
+            if (url.length() == root)
+                url.append('/');
+            url.append(INDEX_PAGE);
+        } else if (url.length() - root > HTML_EXT.length()
+                && url.lastIndexOf(HTML_EXT) == url.length() - HTML_EXT.length()) {
+            url.setLength(url.length() - HTML_EXT.length());
+        }
+    }
+
+    /**
+     * Canonical url of href, found in the page at baseUrl (canonical too).
+     * Null when it isn't a link to a page: empty, only a fragment or a
+     * query, or with a scheme other than http(s) (mailto:, javascript:...).
+     */
+    public static String resolve(String baseUrl, String href) {
+        int slash = baseUrl.indexOf('/');
+        String host = slash < 0 ? baseUrl : baseUrl.substring(0, slash);
+        String directory = slash < 0 ? "/" : baseUrl.substring(slash, baseUrl.lastIndexOf('/') + 1);
+        return resolve(host, directory, href);
+    }
+
+    // directory is the path of the base page up to its last '/'
+    private static String resolve(String host, String directory, String href) {
+        int start = 0;
+        int end = href.length();
+        while (start < end && href.charAt(start) <= ' ')
+            start++;
+        while (end > start && href.charAt(end - 1) <= ' ')
+            end--;
+
+        for (int i = start; i < end; ++i) {
+            char c = href.charAt(i);
+            if (c == '#' || c == '?') {
+                end = i;
+                break;
+            }
+            // Browsers would drop them, but here they're mostly broken markup
+            if (c < ' ')
+                return null;
+        }
+
+        if (start == end)
+            return null;
+
+        int scheme = schemeEnd(href, start, end);
+        if (scheme >= 0) {
+            if (!isHttp(href, start, scheme))
+                return null;
+            start = scheme + 1;
+        }
+
+        StringBuilder url = new StringBuilder(host.length() + directory.length() + end - start);
+        if (href.startsWith("//", start) && start + 2 <= end) {
+            int authorityEnd = href.indexOf('/', start + 2);
+            if (authorityEnd < 0 || authorityEnd > end)
+                authorityEnd = end;
+
+            if (!appendAuthority(url, href, start + 2, authorityEnd))
+                return null;
+            appendPath(url, href, authorityEnd, end);
+        } else if (scheme >= 0) {
+            // "http:page.html" and the like
+            return null;
+        } else if (href.charAt(start) == '/') {
+            url.append(host);
+            appendPath(url, href, start, end);
+        } else {
+            url.append(host);
+            String path = directory.concat(href.substring(start, end));
+            appendPath(url, path, 0, path.length());
+        }
+
+        return url.toString();
+    }
+
+    /**
+     * Resolves the hrefs of a page at a time, remembering the last ones
+     * (least recently used out). Navigation bars repeat the same hrefs on
+     * every page, those are found again without any allocation. Not thread
+     * safe, one per task.
+     */
+    public static class Resolver {
+        private static class CachedUrl {
+            String context;
+            String url;
+        }
+
+        private final int capacity;
+        private final LinkedHashMap<String, CachedUrl> cache;
+
+        private String host = "";
+        private String directory = "/";
+        // Host and directory, relative hrefs depend on both
+        private String base = "/";
+
+        private long hits = 0;
+        private long misses = 0;
+
+        public Resolver(int capacity) {
+            this.capacity = capacity;
+            this.cache = new LinkedHashMap<String, CachedUrl>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedUrl> eldest) {
+                    return size() > Resolver.this.capacity;
+                }
+            };
+        }
+
+        /**
+         * Sets the page the next hrefs are found in.
+         */
+        public void setBase(String baseUrl) {
+            int slash = baseUrl.indexOf('/');
+            host = slash < 0 ? baseUrl : baseUrl.substring(0, slash);
+            directory = slash < 0 ? "/" : baseUrl.substring(slash, baseUrl.lastIndexOf('/') + 1);
+            base = host.concat(directory);
+        }
+
+        // What the url of href depends on besides href: nothing, the host or the host and directory
+        private String contextOf(String href) {
+            int start = 0;
+            while (start < href.length() && href.charAt(start) <= ' ')
+                start++;
+
+            if (href.startsWith("//", start) || schemeEnd(href, start, href.length()) >= 0)
+                return "";
+            if (href.startsWith("/", start))
+                return host;
+
+            return base;
+        }
+
+        public String resolve(String href) {
+            if (capacity <= 0) {
+                misses++;
+                return CrawlUrls.resolve(host, directory, href);
+            }
+
+            String context = contextOf(href);
+            CachedUrl entry = cache.get(href);
+            if (entry != null && entry.context.equals(context)) {
+                hits++;
+                return entry.url;
+            }
+
+            misses++;
+            if (entry == null) {
+                entry = new CachedUrl();
+                cache.put(href, entry);
+            }
+            entry.context = context;
+            entry.url = CrawlUrls.resolve(host, directory, href);
+            return entry.url;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Runs the jobs of the drivers, keeping the wall time and counters of every
+ * one of them in this process, so a harness running several drivers in a
+ * row can tell what each job did.
+ */
+public class JobRuns {
+    public static class Run {
+        public final long sequence;
+        public final String name;
+        public final String id;
+        public final boolean success;
+        public final long millis;
+        public final Counters counters;
+
+        Run(long sequence, String name, String id, boolean success, long millis, Counters counters) {
+            this.sequence = sequence;
+            this.name = name;
+            this.id = id;
+            this.success = success;
+            this.millis = millis;
+            this.counters = counters;
+        }
+    }
+
+    private static final List<Run> runs = new ArrayList<Run>();
+    private static long nextSequence = 0;
+
+    /**
+     * Submits the job and waits for it, like waitForCompletion(true). Jobs
+     * that fail to submit are recorded too, without counters.
+     */
+    public static boolean waitFor(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = job.waitForCompletion(true);
+        } finally {
+            long millis = (System.nanoTime() - start) / 1000000;
+            Counters counters = countersOf(job);
+
+            synchronized (runs) {
+                runs.add(new Run(nextSequence++, job.getJobName(), String.valueOf(job.getJobID()), success, millis, counters));
+            }
+        }
+        return success;
+    }
+
+    // Null for jobs that never got submitted
+    private static Counters countersOf(Job job) throws IOException {
+        try {
+            return job.isComplete() ? job.getCounters() : null;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Like waitFor, but throws if the job failed so drivers stop at the
+     * first failed stage.
+     */
+    public static void waitForSuccess(Job job) throws IOException, InterruptedException, ClassNotFoundException {
+        if (!waitFor(job))
+            throw new IOException("Job failed: " + job.getJobName());
+    }
+
+    /**
+     * Sequence number the next run will get.
+     */
+    public static long nextSequence() {
+        synchronized (runs) {
+            return nextSequence;
+        }
+    }
+
+    /**
+     * Runs with a sequence number of at least sequence, not drained yet.
+     */
+    public static List<Run> since(long sequence) {
+        synchronized (runs) {
+            List<Run> selected = new ArrayList<Run>();
+            for (Run run : runs) {
+                if (run.sequence >= sequence)
+                    selected.add(run);
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Runs recorded since the previous call.
+     */
+    public static List<Run> drain() {
+        synchronized (runs) {
+            List<Run> drained = new ArrayList<Run>(runs);
+            runs.clear();
+            return drained;
+        }
+    }
+}
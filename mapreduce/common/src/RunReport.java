@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormatCounter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormatCounter;
+
+/**
+ * JSON report of a driver run: every job it ran through JobRuns (duration,
+ * bytes in and out, all of its counters) plus whatever per iteration stats
+ * the driver adds. Written to <run.report.dir>/<driver>-<start time>.json,
+ * nothing is written when run.report.dir is unset.
+ */
+public class RunReport {
+    public static final String DIR = "run.report.dir";
+
+    private final String driver;
+    private final long firstSequence = JobRuns.nextSequence();
+    private final long start = System.currentTimeMillis();
+    private final List<Map<String, Object>> iterations = new ArrayList<Map<String, Object>>();
+
+    public RunReport(String driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * Adds an entry to the iterations of the report, values are numbers,
+     * strings or booleans. Returns the entry so callers can fill it.
+     */
+    public Map<String, Object> addIteration(int iteration) {
+        Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put("iteration", iteration);
+        iterations.add(entry);
+        return entry;
+    }
+
+    /**
+     * Writes the report if run.report.dir is set, returns where it went or null.
+     */
+    public Path write(Configuration conf, boolean success) throws IOException {
+        String dir = conf.get(DIR);
+        if (dir == null)
+            return null;
+
+        long millis = System.currentTimeMillis() - start;
+        String name = driver + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(start)) + ".json";
+        Path reportPath = new Path(dir, name);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"driver\": ");
+        appendString(json, driver);
+        json.append(",\n  \"success\": ").append(success);
+        json.append(",\n  \"startTime\": ").append(start);
+        json.append(",\n  \"millis\": ").append(millis);
+
+        json.append(",\n  \"jobs\": [");
+        List<JobRuns.Run> runs = JobRuns.since(firstSequence);
+        for (int i = 0; i < runs.size(); ++i) {
+            json.append(i == 0 ? "\n    " : ",\n    ");
+            appendRun(json, runs.get(i));
+        }
+        json.append(runs.isEmpty() ? "]" : "\n  ]");
+
+        json.append(",\n  \"iterations\": [");
+        for (int i = 0; i < iterations.size(); ++i) {
+            json.append(i == 0 ? "\n    " : ",\n    ");
+            appendObject(json, iterations.get(i));
+        }
+        json.append(iterations.isEmpty() ? "]" : "\n  ]");
+        json.append("\n}\n");
+
+        FileSystem fs = reportPath.getFileSystem(conf);
+        Writer writer = new OutputStreamWriter(fs.create(reportPath, false), StandardCharsets.UTF_8);
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+
+        System.out.println("Run report: " + reportPath);
+        return reportPath;
+    }
+
+    private static long value(Counters counters, Enum<?> counter) {
+        return counters == null ? 0 : counters.findCounter(counter).getValue();
+    }
+
+    private static void appendRun(StringBuilder json, JobRuns.Run run) {
+        json.append("{\"name\": ");
+        appendString(json, run.name);
+        json.append(", \"id\": ");
+        appendString(json, run.id);
+        json.append(", \"success\": ").append(run.success);
+        json.append(", \"millis\": ").append(run.millis);
+        // Hadoop only counts the bytes of plain file splits, whole file readers count their own
+        long bytesRead = value(run.counters, FileInputFormatCounter.BYTES_READ);
+        if (bytesRead == 0)
+            bytesRead = value(run.counters, WholeFileRecordReader.Counters.BYTES_READ);
+        json.append(", \"bytesRead\": ").append(bytesRead);
+        json.append(", \"bytesWritten\": ").append(value(run.counters, FileOutputFormatCounter.BYTES_WRITTEN));
+
+        json.append(", \"counters\": {");
+        if (run.counters != null) {
+            boolean firstGroup = true;
+            for (CounterGroup group : run.counters) {
+                json.append(firstGroup ? "" : ", ");
+                firstGroup = false;
+                appendString(json, group.getName());
+                json.append(": {");
+
+                boolean first = true;
+                for (Counter counter : group) {
+                    json.append(first ? "" : ", ");
+                    first = false;
+                    appendString(json, counter.getName());
+                    json.append(": ").append(counter.getValue());
+                }
+                json.append('}');
+            }
+        }
+        json.append("}}");
+    }
+
+    private static void appendObject(StringBuilder json, Map<String, Object> object) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : object.entrySet()) {
+            json.append(first ? "" : ", ");
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(": ");
+
+            Object value = entry.getValue();
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                // JSON has no NaN nor infinities
+                if (Double.isNaN(number) || Double.isInfinite(number))
+                    json.append("null");
+                else
+                    json.append(number);
+            } else if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else {
+                appendString(json, value.toString());
+            }
+        }
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c == '\n')
+                json.append("\\n");
+            else if (c == '\t')
+                json.append("\\t");
+            else if (c < ' ')
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        json.append('"');
+    }
+}
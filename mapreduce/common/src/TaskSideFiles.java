@@ -0,0 +1,121 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Per task values a job hands to its driver when counters don't fit: job
+ * counters are summed over the tasks and limited to ~120, so a max, a value
+ * per partition or per vector go to a small file of every task instead.
+ *
+ * Files are written to the task's work directory, so only the ones of
+ * successful attempts are committed with the job output, and are named
+ * _<name>-<task id> so input formats skip them.
+ */
+public class TaskSideFiles {
+
+    private static Path path(Path dir, String name, int task) {
+        return new Path(dir, String.format("_%s-%05d", name, task));
+    }
+
+    public static void writeLongs(TaskInputOutputContext<?, ?, ?, ?> context, String name, long[] values)
+            throws IOException, InterruptedException {
+        FSDataOutputStream out = create(context, name);
+        try {
+            out.writeInt(values.length);
+            for (long value : values)
+                out.writeLong(value);
+        } finally {
+            IOUtils.closeStream(out);
+        }
+    }
+
+    public static void writeDoubles(TaskInputOutputContext<?, ?, ?, ?> context, String name, double[] values)
+            throws IOException, InterruptedException {
+        FSDataOutputStream out = create(context, name);
+        try {
+            out.writeInt(values.length);
+            for (double value : values)
+                out.writeDouble(value);
+        } finally {
+            IOUtils.closeStream(out);
+        }
+    }
+
+    private static FSDataOutputStream create(TaskInputOutputContext<?, ?, ?, ?> context, String name)
+            throws IOException, InterruptedException {
+        Path path = path(FileOutputFormat.getWorkOutputPath(context), name, context.getTaskAttemptID().getTaskID().getId());
+        return path.getFileSystem(context.getConfiguration()).create(path, true);
+    }
+
+    /**
+     * Values of every task of a finished job, indexed by task id, for tasks
+     * up to tasks - 1. Tasks without a file get an empty array.
+     */
+    public static long[][] readLongs(Configuration conf, Path outputPath, String name, int tasks) throws IOException {
+        long[][] values = new long[tasks][0];
+        FileSystem fs = outputPath.getFileSystem(conf);
+        for (FileStatus file : list(fs, outputPath, name)) {
+            FSDataInputStream in = fs.open(file.getPath());
+            try {
+                long[] taskValues = new long[in.readInt()];
+                for (int i = 0; i < taskValues.length; ++i)
+                    taskValues[i] = in.readLong();
+
+                values[taskOf(file.getPath())] = taskValues;
+            } finally {
+                IOUtils.closeStream(in);
+            }
+        }
+
+        return values;
+    }
+
+    public static double[][] readDoubles(Configuration conf, Path outputPath, String name, int tasks) throws IOException {
+        double[][] values = new double[tasks][0];
+        FileSystem fs = outputPath.getFileSystem(conf);
+        for (FileStatus file : list(fs, outputPath, name)) {
+            FSDataInputStream in = fs.open(file.getPath());
+            try {
+                double[] taskValues = new double[in.readInt()];
+                for (int i = 0; i < taskValues.length; ++i)
+                    taskValues[i] = in.readDouble();
+
+                values[taskOf(file.getPath())] = taskValues;
+            } finally {
+                IOUtils.closeStream(in);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Number of tasks of a finished job, for jobs where every task writes
+     * a side file: the highest task id with one plus one.
+     */
+    public static int taskCount(Configuration conf, Path outputPath, String name) throws IOException {
+        int tasks = 0;
+        for (FileStatus file : list(outputPath.getFileSystem(conf), outputPath, name))
+            tasks = Math.max(tasks, taskOf(file.getPath()) + 1);
+
+        return tasks;
+    }
+
+    private static FileStatus[] list(FileSystem fs, Path outputPath, String name) throws IOException {
+        FileStatus[] files = fs.globStatus(new Path(outputPath, "_" + name + "-[0-9]*"));
+        return files == null ? new FileStatus[0] : files;
+    }
+
+    private static int taskOf(Path path) {
+        String fileName = path.getName();
+        return Integer.parseInt(fileName.substring(fileName.lastIndexOf('-') + 1));
+    }
+}
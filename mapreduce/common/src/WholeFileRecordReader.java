@@ -0,0 +1,136 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A single record per file: its path and its bytes. The bytes are read
+ * straight into the value, which by default is one buffer per task thread
+ * shared by every file (CombineFileRecordReader creates a reader per file),
+ * so mappers must not keep it across records. Read errors fail the task.
+ */
+public class WholeFileRecordReader extends RecordReader<Object, Text> {
+    // Files larger than this are skipped or truncated, -1 reads them whole
+    public static final String MAX_FILE_BYTES = "crawl.input.max-file-bytes";
+    public static final long DEFAULT_MAX_FILE_BYTES = 64 * 1024 * 1024;
+    // What to do with a file over the max: "skip" or "truncate" (keep its first bytes)
+    public static final String OVERSIZE = "crawl.input.oversize";
+    public static final String OVERSIZE_SKIP = "skip";
+    public static final String OVERSIZE_TRUNCATE = "truncate";
+    // Whether files share one growable value, false gives every file its own
+    public static final String REUSE_BUFFER = "crawl.input.reuse-buffer";
+
+    public static enum Counters {
+        FILES_READ,
+        BYTES_READ,
+        FILES_SKIPPED_OVERSIZE,
+        FILES_TRUNCATED,
+    }
+
+    private static final ThreadLocal<Text> sharedValue = ThreadLocal.withInitial(Text::new);
+
+    private FileSplit split;
+    private Configuration conf;
+    private TaskAttemptContext context;
+
+    // Key is the path of the file, mappers build the url of the page from it
+    private final Text currKey = new Text();
+    private Text currValue;
+    private boolean fileProcessed = false;
+
+    // Index of the file to read when used within a CombineFileSplit
+    private int combineIdx = -1;
+
+    public WholeFileRecordReader() {
+    }
+
+    /**
+     * Used by CombineFileRecordReader, one reader per file of the split.
+     */
+    public WholeFileRecordReader(CombineFileSplit split, TaskAttemptContext context, Integer idx) {
+        this.combineIdx = idx;
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+        if (split instanceof CombineFileSplit) {
+            CombineFileSplit combineSplit = (CombineFileSplit) split;
+            this.split = new FileSplit(combineSplit.getPath(combineIdx), combineSplit.getOffset(combineIdx),
+                    combineSplit.getLength(combineIdx), combineSplit.getLocations());
+        } else {
+            this.split = (FileSplit) split;
+        }
+
+        this.conf = context.getConfiguration();
+        this.context = context;
+        this.currValue = conf.getBoolean(REUSE_BUFFER, true) ? sharedValue.get() : new Text();
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+        if (this.fileProcessed) {
+            return false;
+        }
+        this.fileProcessed = true;
+
+        Path path = this.split.getPath();
+        FileSystem fs = path.getFileSystem(conf);
+        long fileLength = fs.getFileStatus(path).getLen();
+
+        long maxBytes = conf.getLong(MAX_FILE_BYTES, DEFAULT_MAX_FILE_BYTES);
+        if (maxBytes < 0 || maxBytes > Integer.MAX_VALUE)
+            maxBytes = Integer.MAX_VALUE;
+
+        int length = (int) Math.min(fileLength, maxBytes);
+        if (fileLength > maxBytes) {
+            if (!OVERSIZE_TRUNCATE.equals(conf.get(OVERSIZE, OVERSIZE_SKIP))) {
+                context.getCounter(Counters.FILES_SKIPPED_OVERSIZE).increment(1);
+                return false;
+            }
+            context.getCounter(Counters.FILES_TRUNCATED).increment(1);
+        }
+
+        this.currKey.set(path.toString());
+
+        FSDataInputStream in = fs.open(path);
+        try {
+            // Grows the value if needed, then reads into it, the only copy of the bytes
+            this.currValue.readWithKnownLength(in, length);
+        } finally {
+            IOUtils.closeStream(in);
+        }
+
+        context.getCounter(Counters.FILES_READ).increment(1);
+        context.getCounter(Counters.BYTES_READ).increment(length);
+        return true;
+    }
+
+    @Override
+    public Object getCurrentKey() throws IOException, InterruptedException {
+        return this.currKey;
+    }
+
+    @Override
+    public Text getCurrentValue() throws IOException, InterruptedException {
+        return this.currValue;
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+        return this.fileProcessed ? 1 : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.jsoup.nodes.Document;
+
+/**
+ * Reads and parses every crawled page once, producing both the inverted index
+ * (same output as InvertedIndex) and the link graph (same output as
+ * InitPageRank) in a single job.
+ *
+ * Map output keys are tagged with their kind so both go through the same
+ * shuffle, words with the count of every page (see InvertedIndex.TermCountMapper)
+ * and links with their out-links. The reducer writes each kind to its own
+ * named output:
+ *  - index/part-r-*: `word\turl|count|url|count...` text lines
+ *  - links/part-r-*: (url, TextArrayWritable) sequence files, the input of
+ *    BuildUrlDictionary (see pagerank.init.links in PageRank)
+ */
+public class CrawlIngest {
+    public static final String INDEX_OUTPUT = "index";
+    public static final String LINKS_OUTPUT = "links";
+
+    public static final byte WORD_TAG = 'W';
+    public static final byte LINK_TAG = 'L';
+
+    // A UrlCount for words, an out-link Text for links
+    public static class IngestValue extends GenericWritable {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static final Class<? extends Writable>[] TYPES = new Class[] { UrlCount.class, Text.class };
+
+        @Override
+        protected Class<? extends Writable>[] getTypes() {
+            return TYPES;
+        }
+    }
+
+    public static class IngestMapper extends Mapper<Object, Text, Text, IngestValue> {
+        private Text taggedKey = new Text();
+        private Text url = new Text();
+        private Text word = new Text();
+        private Text outLink = new Text();
+        private UrlCount urlCount = new UrlCount();
+        private IngestValue ingestValue = new IngestValue();
+
+        private WordTokenizer tokenizer = new WordTokenizer();
+        private TermCounter counter = new TermCounter();
+        private ArrayList<String> hrefs = new ArrayList<String>();
+        private LinkedHashSet<String> outLinks = new LinkedHashSet<String>();
+        private CrawlUrls.Resolver resolver;
+
+        private byte[] tagBuffer = new byte[1];
+
+        @Override
+        protected void setup(Context context) {
+            resolver = new CrawlUrls.Resolver(context.getConfiguration().getInt(CrawlUrls.CACHE_SIZE, CrawlUrls.DEFAULT_CACHE_SIZE));
+        }
+
+        private void setTagged(byte tag, String value) throws IOException {
+            tagBuffer[0] = tag;
+            taggedKey.set(tagBuffer);
+
+            ByteBuffer bytes = Text.encode(value);
+            taggedKey.append(bytes.array(), 0, bytes.limit());
+        }
+
+        private void setTagged(byte tag, Text value) {
+            tagBuffer[0] = tag;
+            taggedKey.set(tagBuffer);
+            taggedKey.append(value.getBytes(), 0, value.getLength());
+        }
+
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            Document doc = CrawlPages.parse(value);
+
+            String selfUrl = CrawlUrls.urlFromPath(key.toString());
+            url.set(selfUrl);
+
+            counter.clear();
+            tokenizer.countWords(doc.body().text(), counter);
+            ingestValue.set(urlCount);
+            for (int i = 0; i < counter.size(); ++i) {
+                urlCount.set(url, counter.get(i, word));
+                setTagged(WORD_TAG, word);
+                context.write(taggedKey, ingestValue);
+            }
+
+            hrefs.clear();
+            LinkExtractor.extractWithJsoup(doc, hrefs);
+
+            outLinks.clear();
+            InitPageRank.collectOutLinks(resolver, selfUrl, hrefs, outLinks);
+
+            setTagged(LINK_TAG, selfUrl);
+            ingestValue.set(outLink);
+            for (String link : outLinks) {
+                outLink.set(link);
+                context.write(taggedKey, ingestValue);
+            }
+        }
+    }
+
+    public static class IngestReducer extends Reducer<Text, IngestValue, Text, Object> {
+        private MultipleOutputs<Text, Object> outputs;
+
+        private Text untaggedKey = new Text();
+        private Text postings = new Text();
+        private HashMap<String, Integer> urlCount = new HashMap<String, Integer>();
+        private ArrayList<Text> outLinks = new ArrayList<Text>();
+        private TextArrayWritable outLinksArray = new TextArrayWritable();
+
+        @Override
+        protected void setup(Context context) {
+            outputs = new MultipleOutputs<Text, Object>(context);
+        }
+
+        public void reduce(Text key, Iterable<IngestValue> values, Context context) throws IOException, InterruptedException {
+            byte tag = key.getBytes()[0];
+            untaggedKey.set(key.getBytes(), 1, key.getLength() - 1);
+
+            if (tag == WORD_TAG) {
+                // Same sums as InvertedIndex.CountsReducer
+                urlCount.clear();
+                for (IngestValue value : values) {
+                    UrlCount posting = (UrlCount) value.get();
+                    urlCount.merge(posting.getUrl().toString(), posting.getCount(), Integer::sum);
+                }
+
+                postings.set(InvertedIndex.joinPostings(urlCount));
+                outputs.write(INDEX_OUTPUT, untaggedKey, postings, INDEX_OUTPUT + "/part");
+            } else {
+                outLinks.clear();
+                // A new Text per value, GenericWritable doesn't reuse them
+                for (IngestValue outLink : values)
+                    outLinks.add((Text) outLink.get());
+
+                outLinksArray.set(outLinks.toArray(new Text[outLinks.size()]));
+                outputs.write(LINKS_OUTPUT, untaggedKey, outLinksArray, LINKS_OUTPUT + "/part");
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    public static Path indexPath(Path outputPath) {
+        return new Path(outputPath, INDEX_OUTPUT);
+    }
+
+    public static Path linksPath(Path outputPath) {
+        return new Path(outputPath, LINKS_OUTPUT);
+    }
+
+    public static Job createJob(Configuration conf, Path inputPath, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "crawl-ingest");
+        job.setJarByClass(CrawlIngest.class);
+        job.setMapperClass(IngestMapper.class);
+        job.setReducerClass(IngestReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(IngestValue.class);
+        if (conf.getBoolean(CombineWholeFileInputFormat.COMBINE_INPUT, true))
+            job.setInputFormatClass(CombineWholeFileInputFormat.class);
+        else
+            job.setInputFormatClass(WholeFileInputFormat.class);
+        // Everything goes through the named outputs
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        MultipleOutputs.addNamedOutput(job, INDEX_OUTPUT, TextOutputFormat.class, Text.class, Text.class);
+        MultipleOutputs.addNamedOutput(job, LINKS_OUTPUT, SequenceFileOutputFormat.class, Text.class, TextArrayWritable.class);
+        FileInputFormat.addInputPath(job, inputPath);
+        FileInputFormat.setInputDirRecursive(job, true);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D run.report.dir=<report-dir>] <input-dir> <output-dir>");
+            return;
+        }
+
+        RunReport report = new RunReport("crawl-ingest");
+        boolean success = false;
+        try {
+            success = JobRuns.waitFor(createJob(conf, new Path(args[0]), new Path(args[1])));
+        } finally {
+            report.write(conf, success);
+        }
+
+        if (!success)
+            System.exit(1);
+    }
+}
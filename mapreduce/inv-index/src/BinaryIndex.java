@@ -0,0 +1,73 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary inverted index, three files per index directory.
+ * Every int and long is big endian.
+ *
+ * docs.bin, doc id to url:
+ *   int magic, int docCount,
+ *   long[docCount + 1] offset of every url in the data section,
+ *   byte[] urls (utf-8)
+ *
+ * terms.bin, sorted term dictionary:
+ *   int magic, int termCount,
+ *   int[termCount + 1] offset of every term in the data section,
+ *   termCount entries of { long postingsOffset, int docFreq, int maxTf },
+ *   byte[] terms (utf-8, sorted by bytes)
+ *
+ * postings.bin, the postings of a term at its postingsOffset:
+ *   int blockCount,
+ *   blockCount skip entries of { int lastDocId, int maxTf, int blockOffset },
+ *   blocks of up to BLOCK_SIZE postings, each one a varint doc id delta and
+ *   a varint term frequency. blockOffset is relative to the first block, the
+ *   delta of the first posting of a block is from the lastDocId of the
+ *   previous block (from 0 for the first one), so blocks can be skipped.
+ */
+public class BinaryIndex {
+    public static final String DOCS_FILE = "docs.bin";
+    public static final String TERMS_FILE = "terms.bin";
+    public static final String POSTINGS_FILE = "postings.bin";
+
+    public static final int DOCS_MAGIC = 0x57534431;
+    public static final int TERMS_MAGIC = 0x57535431;
+    public static final int POSTINGS_MAGIC = 0x57535031;
+
+    public static final int BLOCK_SIZE = 64;
+
+    public static final int HEADER_BYTES = 8;
+    public static final int TERM_ENTRY_BYTES = 8 + 4 + 4;
+    public static final int SKIP_ENTRY_BYTES = 4 + 4 + 4;
+
+    /**
+     * Writes an unsigned LEB128 varint, returns the number of bytes written.
+     */
+    public static int writeVarInt(DataOutput out, int value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+
+        out.writeByte(value);
+        return bytes;
+    }
+
+    /**
+     * Reads a varint at the position of the buffer, advancing it.
+     */
+    public static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        return value;
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a binary index written by BinaryIndexWriter from a local directory.
+ * The three files are memory mapped, lookups only use absolute reads on the
+ * shared buffers so a reader can be used from several threads, each
+ * Postings has its own view.
+ */
+public class BinaryIndexReader {
+    private final ByteBuffer docs;
+    private final ByteBuffer terms;
+    private final ByteBuffer postings;
+
+    private final int docCount;
+    private final int termCount;
+    private final int docDataStart;
+    private final int termEntriesStart;
+    private final int termDataStart;
+
+    /**
+     * Cursor over the postings of a term, in doc id order.
+     */
+    public static class Postings {
+        public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+        private final ByteBuffer buffer;
+        private final int docFreq;
+        private final int blockCount;
+        private final int skipStart;
+        private final int dataStart;
+
+        private int block = -1;
+        private int leftInBlock = 0;
+        private int docId = -1;
+        private int tf = 0;
+        private long decoded = 0;
+
+        private Postings(ByteBuffer buffer, int offset, int docFreq) {
+            this.buffer = buffer;
+            this.docFreq = docFreq;
+            this.blockCount = buffer.getInt(offset);
+            this.skipStart = offset + 4;
+            this.dataStart = skipStart + blockCount * BinaryIndex.SKIP_ENTRY_BYTES;
+        }
+
+        public int docFreq() {
+            return docFreq;
+        }
+
+        /**
+         * Current doc id, -1 before the first call to next or advance and
+         * NO_MORE_DOCS once exhausted.
+         */
+        public int docId() {
+            return docId;
+        }
+
+        public int tf() {
+            return tf;
+        }
+
+        /**
+         * Number of postings decoded so far.
+         */
+        public long decoded() {
+            return decoded;
+        }
+
+        private int lastDocId(int block) {
+            return buffer.getInt(skipStart + block * BinaryIndex.SKIP_ENTRY_BYTES);
+        }
+
+        private void enterBlock(int block) {
+            int blockOffset = buffer.getInt(skipStart + block * BinaryIndex.SKIP_ENTRY_BYTES + 8);
+            buffer.position(dataStart + blockOffset);
+
+            this.block = block;
+            leftInBlock = Math.min(BinaryIndex.BLOCK_SIZE, docFreq - block * BinaryIndex.BLOCK_SIZE);
+            // Deltas start from the last doc of the previous block
+            docId = block == 0 ? 0 : lastDocId(block - 1);
+        }
+
+        public boolean next() {
+            if (leftInBlock == 0) {
+                if (block + 1 >= blockCount) {
+                    docId = NO_MORE_DOCS;
+                    return false;
+                }
+                enterBlock(block + 1);
+            }
+
+            docId += BinaryIndex.readVarInt(buffer);
+            tf = BinaryIndex.readVarInt(buffer);
+            leftInBlock--;
+            decoded++;
+            return true;
+        }
+
+        /**
+         * Moves to the first posting with a doc id >= target. The block is
+         * found galloping over the skip table, only that block is decoded.
+         */
+        public boolean advance(int target) {
+            if (docId >= target)
+                return docId != NO_MORE_DOCS;
+
+            int next = Math.max(block, 0);
+            if (lastDocId(next) < target) {
+                int bound = 1;
+                while (next + bound < blockCount && lastDocId(next + bound) < target)
+                    bound <<= 1;
+
+                // The first block ending at or after target is in (next + bound / 2, next + bound]
+                int low = next + bound / 2 + 1;
+                int high = Math.min(next + bound, blockCount);
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (lastDocId(mid) < target)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                next = low;
+            }
+
+            if (next == blockCount) {
+                block = blockCount;
+                leftInBlock = 0;
+                docId = NO_MORE_DOCS;
+                return false;
+            }
+
+            if (next != block)
+                enterBlock(next);
+
+            while (next()) {
+                if (docId >= target)
+                    return true;
+            }
+
+            return false;
+        }
+    }
+
+    private static ByteBuffer map(Path file, int magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != magic)
+                throw new IOException("Not a binary index file: " + file);
+
+            return buffer;
+        }
+    }
+
+    public BinaryIndexReader(Path dir) throws IOException {
+        docs = map(dir.resolve(BinaryIndex.DOCS_FILE), BinaryIndex.DOCS_MAGIC);
+        terms = map(dir.resolve(BinaryIndex.TERMS_FILE), BinaryIndex.TERMS_MAGIC);
+        postings = map(dir.resolve(BinaryIndex.POSTINGS_FILE), BinaryIndex.POSTINGS_MAGIC);
+
+        docCount = docs.getInt(4);
+        docDataStart = BinaryIndex.HEADER_BYTES + (docCount + 1) * 8;
+
+        termCount = terms.getInt(4);
+        termEntriesStart = BinaryIndex.HEADER_BYTES + (termCount + 1) * 4;
+        termDataStart = termEntriesStart + termCount * BinaryIndex.TERM_ENTRY_BYTES;
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public String getUrl(int docId) {
+        int start = (int) docs.getLong(BinaryIndex.HEADER_BYTES + docId * 8);
+        int end = (int) docs.getLong(BinaryIndex.HEADER_BYTES + (docId + 1) * 8);
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = docs.get(docDataStart + start + i);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Binary searches the doc table (urls are sorted), returns the doc id of url or -1.
+     */
+    public int findDoc(String url) {
+        int low = 0, high = docCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = getUrl(mid).compareTo(url);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    public String getTerm(int termId) {
+        int start = terms.getInt(BinaryIndex.HEADER_BYTES + termId * 4);
+        int end = terms.getInt(BinaryIndex.HEADER_BYTES + (termId + 1) * 4);
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = terms.get(termDataStart + start + i);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Compares the bytes of a term of the dictionary with word, as unsigned bytes
+    private int compareTerm(int termId, byte[] word) {
+        int start = terms.getInt(BinaryIndex.HEADER_BYTES + termId * 4);
+        int end = terms.getInt(BinaryIndex.HEADER_BYTES + (termId + 1) * 4);
+
+        int length = Math.min(end - start, word.length);
+        for (int i = 0; i < length; ++i) {
+            int a = terms.get(termDataStart + start + i) & 0xff;
+            int b = word[i] & 0xff;
+            if (a != b)
+                return a - b;
+        }
+
+        return (end - start) - word.length;
+    }
+
+    /**
+     * Binary searches the dictionary, returns the term id of word or -1.
+     */
+    public int findTerm(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+
+        int low = 0, high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTerm(mid, bytes);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    public int getDocFreq(int termId) {
+        return terms.getInt(termEntriesStart + termId * BinaryIndex.TERM_ENTRY_BYTES + 8);
+    }
+
+    public int getMaxTf(int termId) {
+        return terms.getInt(termEntriesStart + termId * BinaryIndex.TERM_ENTRY_BYTES + 12);
+    }
+
+    public Postings getPostings(int termId) {
+        int offset = (int) terms.getLong(termEntriesStart + termId * BinaryIndex.TERM_ENTRY_BYTES);
+        return new Postings(postings.duplicate(), offset, getDocFreq(termId));
+    }
+
+    /**
+     * Prints the postings of the given words as `url|count` lines.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... <binary-index-dir> <word>...");
+            return;
+        }
+
+        BinaryIndexReader reader = new BinaryIndexReader(Paths.get(args[0]));
+        for (int i = 1; i < args.length; ++i) {
+            int termId = reader.findTerm(args[i]);
+            System.out.println(args[i] + ": " + (termId < 0 ? 0 : reader.getDocFreq(termId)) + " pages");
+            if (termId < 0)
+                continue;
+
+            Postings postings = reader.getPostings(termId);
+            while (postings.next())
+                System.out.println(reader.getUrl(postings.docId()) + "|" + postings.tf());
+        }
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Converts the text output of InvertedIndex (`word\turl|count|url|count...`
+ * lines) into the binary layout described in BinaryIndex. Words split over
+ * several lines (invindex.reduce.max-line-bytes, hot words salted over
+ * several parts) are merged.
+ *
+ * Doc ids are the positions of the urls once sorted, the part files are
+ * merged by term so the dictionary comes out sorted. Only the doc table, the
+ * dictionary and the postings of one term are kept in memory.
+ */
+public class BinaryIndexWriter {
+    // Where InvertedIndex writes the binary index after the job, unset to skip it
+    public static final String OUTPUT = "invindex.output.binary";
+    // Whether write() reads the binary index back and checks it against the text one, local outputs only
+    public static final String VERIFY = "invindex.output.binary.verify";
+
+    /**
+     * Reads the lines of a part file, one term at a time.
+     */
+    private static class PartReader implements Comparable<PartReader> {
+        private final BufferedReader reader;
+        private final Text term = new Text();
+        private String postings;
+
+        PartReader(FileSystem fs, Path path) throws IOException {
+            reader = new BufferedReader(new InputStreamReader(fs.open(path), StandardCharsets.UTF_8));
+        }
+
+        boolean advance() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null)
+                    return false;
+            } while (line.indexOf('\t') < 0);
+
+            int tab = line.indexOf('\t');
+            term.set(line.substring(0, tab));
+            postings = line.substring(tab + 1);
+            return true;
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public int compareTo(PartReader other) {
+            return term.compareTo(other.term);
+        }
+    }
+
+    /**
+     * Parses `url|count|url|count...` into (docId << 32 | count) entries sorted by doc id.
+     */
+    private static long[] parsePostings(String postings, HashMap<String, Integer> docIds) {
+        String[] parts = postings.split("\\|");
+        long[] entries = new long[parts.length / 2];
+        for (int i = 0; i < entries.length; ++i) {
+            long docId = docIds.get(parts[2 * i]);
+            long count = Integer.parseInt(parts[2 * i + 1]);
+            entries[i] = docId << 32 | count;
+        }
+
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    private static long[] merge(long[] entries, long[] more) {
+        long[] merged = Arrays.copyOf(entries, entries.length + more.length);
+        System.arraycopy(more, 0, merged, entries.length, more.length);
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static void advance(PriorityQueue<PartReader> queue, PartReader reader) throws IOException {
+        if (reader.advance())
+            queue.add(reader);
+        else
+            reader.close();
+    }
+
+    private static FileStatus[] listParts(FileSystem fs, Path indexPath) throws IOException {
+        FileStatus[] parts = fs.globStatus(new Path(indexPath, "part-*"));
+        if (parts == null || parts.length == 0)
+            throw new IOException("No part files in " + indexPath);
+
+        return parts;
+    }
+
+    private static String[] collectUrls(FileSystem fs, FileStatus[] parts) throws IOException {
+        TreeSet<String> urls = new TreeSet<String>();
+        for (FileStatus part : parts) {
+            PartReader reader = new PartReader(fs, part.getPath());
+            while (reader.advance()) {
+                String[] postings = reader.postings.split("\\|");
+                for (int i = 0; i + 1 < postings.length; i += 2)
+                    urls.add(postings[i]);
+            }
+            reader.close();
+        }
+
+        return urls.toArray(new String[urls.size()]);
+    }
+
+    private static void writeDocs(FileSystem fs, Path path, String[] urls) throws IOException {
+        byte[][] encoded = new byte[urls.length][];
+        for (int i = 0; i < urls.length; ++i)
+            encoded[i] = urls[i].getBytes(StandardCharsets.UTF_8);
+
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            out.writeInt(BinaryIndex.DOCS_MAGIC);
+            out.writeInt(urls.length);
+
+            long offset = 0;
+            out.writeLong(offset);
+            for (byte[] url : encoded) {
+                offset += url.length;
+                out.writeLong(offset);
+            }
+
+            for (byte[] url : encoded)
+                out.write(url);
+        }
+    }
+
+    /**
+     * Writes the blocks and skip table of a term, returns its max term frequency.
+     */
+    private static int writePostings(FSDataOutputStream out, long[] entries, ByteArrayOutputStream blockBytes) throws IOException {
+        int blockCount = (entries.length + BinaryIndex.BLOCK_SIZE - 1) / BinaryIndex.BLOCK_SIZE;
+        int[] lastDocIds = new int[blockCount];
+        int[] maxTfs = new int[blockCount];
+        int[] blockOffsets = new int[blockCount];
+
+        blockBytes.reset();
+        DataOutputStream blocks = new DataOutputStream(blockBytes);
+
+        int maxTf = 0;
+        int prevDocId = 0;
+        for (int i = 0; i < entries.length; ++i) {
+            int block = i / BinaryIndex.BLOCK_SIZE;
+            if (i % BinaryIndex.BLOCK_SIZE == 0)
+                blockOffsets[block] = blocks.size();
+
+            int docId = (int) (entries[i] >>> 32);
+            int tf = (int) entries[i];
+            BinaryIndex.writeVarInt(blocks, docId - prevDocId);
+            BinaryIndex.writeVarInt(blocks, tf);
+            prevDocId = docId;
+
+            lastDocIds[block] = docId;
+            maxTfs[block] = Math.max(maxTfs[block], tf);
+            maxTf = Math.max(maxTf, tf);
+        }
+
+        out.writeInt(blockCount);
+        for (int i = 0; i < blockCount; ++i) {
+            out.writeInt(lastDocIds[i]);
+            out.writeInt(maxTfs[i]);
+            out.writeInt(blockOffsets[i]);
+        }
+        blockBytes.writeTo(out);
+
+        return maxTf;
+    }
+
+    private static void writeTerms(FileSystem fs, Path path, int termCount, int[] termOffsets,
+            long[] postingsOffsets, int[] docFreqs, int[] maxTfs, ByteArrayOutputStream termBytes) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            out.writeInt(BinaryIndex.TERMS_MAGIC);
+            out.writeInt(termCount);
+
+            for (int i = 0; i <= termCount; ++i)
+                out.writeInt(termOffsets[i]);
+
+            for (int i = 0; i < termCount; ++i) {
+                out.writeLong(postingsOffsets[i]);
+                out.writeInt(docFreqs[i]);
+                out.writeInt(maxTfs[i]);
+            }
+
+            termBytes.writeTo(out);
+        }
+    }
+
+    public static void write(Configuration conf, Path indexPath, Path outputPath) throws IOException {
+        FileSystem fs = indexPath.getFileSystem(conf);
+        FileStatus[] parts = listParts(fs, indexPath);
+
+        String[] urls = collectUrls(fs, parts);
+        HashMap<String, Integer> docIds = new HashMap<String, Integer>();
+        for (int i = 0; i < urls.length; ++i)
+            docIds.put(urls[i], i);
+
+        FileSystem outFs = outputPath.getFileSystem(conf);
+        outFs.mkdirs(outputPath);
+        writeDocs(outFs, new Path(outputPath, BinaryIndex.DOCS_FILE), urls);
+
+        // Each part is sorted by term, merge them
+        PriorityQueue<PartReader> queue = new PriorityQueue<PartReader>();
+        for (FileStatus part : parts)
+            advance(queue, new PartReader(fs, part.getPath()));
+
+        int termCount = 0;
+        int[] termOffsets = new int[1024 + 1];
+        long[] postingsOffsets = new long[1024];
+        int[] docFreqs = new int[1024];
+        int[] maxTfs = new int[1024];
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+        Text lastTerm = new Text();
+
+        try (FSDataOutputStream postings = outFs.create(new Path(outputPath, BinaryIndex.POSTINGS_FILE), true)) {
+            postings.writeInt(BinaryIndex.POSTINGS_MAGIC);
+
+            while (!queue.isEmpty()) {
+                PartReader reader = queue.poll();
+                if (termCount > 0 && reader.term.compareTo(lastTerm) <= 0)
+                    throw new IOException("Part files not sorted by word at " + reader.term);
+                lastTerm.set(reader.term);
+
+                long[] entries = parsePostings(reader.postings, docIds);
+                advance(queue, reader);
+
+                // Other lines of the same word are next in the queue
+                while (!queue.isEmpty() && queue.peek().term.equals(lastTerm)) {
+                    reader = queue.poll();
+                    entries = merge(entries, parsePostings(reader.postings, docIds));
+                    advance(queue, reader);
+                }
+
+                if (termCount == postingsOffsets.length) {
+                    int capacity = termCount * 2;
+                    termOffsets = Arrays.copyOf(termOffsets, capacity + 1);
+                    postingsOffsets = Arrays.copyOf(postingsOffsets, capacity);
+                    docFreqs = Arrays.copyOf(docFreqs, capacity);
+                    maxTfs = Arrays.copyOf(maxTfs, capacity);
+                }
+
+                // The readers already moved on to their next word
+                termBytes.write(lastTerm.getBytes(), 0, lastTerm.getLength());
+                termOffsets[termCount + 1] = termBytes.size();
+                postingsOffsets[termCount] = postings.getPos();
+                docFreqs[termCount] = entries.length;
+                maxTfs[termCount] = writePostings(postings, entries, blockBytes);
+                termCount++;
+            }
+        }
+
+        writeTerms(outFs, new Path(outputPath, BinaryIndex.TERMS_FILE), termCount, termOffsets,
+            postingsOffsets, docFreqs, maxTfs, termBytes);
+
+        if (conf.getBoolean(VERIFY, false)) {
+            if (!(outFs instanceof LocalFileSystem))
+                throw new IOException("Can only verify a local binary index: " + outputPath);
+
+            verify(conf, indexPath, ((LocalFileSystem) outFs).pathToFile(outputPath).toPath());
+        }
+    }
+
+    /**
+     * Reads the binary index at binaryDir back and checks it holds every
+     * posting of the text index at indexPath with the same count, and no
+     * other. Throws at the first difference.
+     */
+    public static void verify(Configuration conf, Path indexPath, java.nio.file.Path binaryDir) throws IOException {
+        BinaryIndexReader index = new BinaryIndexReader(binaryDir);
+        FileSystem fs = indexPath.getFileSystem(conf);
+        HashMap<String, Integer> docFreqs = new HashMap<String, Integer>();
+
+        for (FileStatus part : listParts(fs, indexPath)) {
+            PartReader reader = new PartReader(fs, part.getPath());
+            try {
+                while (reader.advance()) {
+                    String word = reader.term.toString();
+                    int termId = index.findTerm(word);
+                    if (termId < 0)
+                        throw new IOException("Binary index has no word " + word);
+
+                    String[] postings = reader.postings.split("\\|");
+                    for (int i = 0; i + 1 < postings.length; i += 2) {
+                        int docId = index.findDoc(postings[i]);
+                        BinaryIndexReader.Postings found = index.getPostings(termId);
+                        if (docId < 0 || !found.advance(docId) || found.docId() != docId
+                                || found.tf() != Integer.parseInt(postings[i + 1]))
+                            throw new IOException("Binary index differs on " + word + " in " + postings[i]);
+                    }
+                    docFreqs.merge(word, postings.length / 2, Integer::sum);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        if (docFreqs.size() != index.getTermCount())
+            throw new IOException("Binary index has " + index.getTermCount() + " words instead of " + docFreqs.size());
+
+        for (Map.Entry<String, Integer> entry : docFreqs.entrySet()) {
+            if (index.getDocFreq(index.findTerm(entry.getKey())) != entry.getValue())
+                throw new IOException("Binary index has extra pages for " + entry.getKey());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... <inv-index-output-dir> <binary-index-dir>");
+            return;
+        }
+
+        write(conf, new Path(args[0]), new Path(args[1]));
+    }
+}
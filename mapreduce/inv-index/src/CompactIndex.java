@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Merges the segments of an incremental index (see IndexSegments), keeping
+ * only the postings of each url from the segment owning it. The result is
+ * either a new single segment replacing all the others (compaction) or a
+ * plain InvertedIndex output for the loader or BuildQueryIndex (export).
+ *
+ * Two jobs: the first joins the postings of every segment with the
+ * manifests by url and keeps the live ones, along with the manifest of the
+ * live pages, the second groups them by word like InvertedIndex.
+ */
+public class CompactIndex {
+    public static enum Counters {
+        POSTINGS_LIVE,
+        POSTINGS_DROPPED,
+    }
+
+    /**
+     * Emits (url, `segment|count|word`) for every posting of a segment.
+     */
+    public static class PostingsMapper extends Mapper<IntWritable, Text, Text, IndexSegments.JoinValue> {
+        private Text url = new Text();
+        private Text posting = new Text();
+        private IndexSegments.JoinValue value = new IndexSegments.JoinValue();
+
+        public void map(IntWritable segment, Text line, Context context) throws IOException, InterruptedException {
+            String text = line.toString();
+            int tab = text.indexOf('\t');
+            if (tab < 0)
+                return;
+
+            String word = text.substring(0, tab);
+            String[] postings = text.substring(tab + 1).split("\\|");
+            for (int i = 0; i + 1 < postings.length; i += 2) {
+                url.set(postings[i]);
+                posting.set(segment.get() + "|" + postings[i + 1] + '|' + word);
+                value.set(posting);
+                context.write(url, value);
+            }
+        }
+    }
+
+    /**
+     * Writes (word, UrlCount) for the postings of a url from its owner, and
+     * the url to the manifest of the live pages unless it was deleted.
+     */
+    public static class LiveReducer extends Reducer<Text, IndexSegments.JoinValue, Text, Writable> {
+        private MultipleOutputs<Text, Writable> outputs;
+        private Text word = new Text();
+        private UrlCount urlCount = new UrlCount();
+        private ArrayList<String> postings = new ArrayList<String>();
+
+        @Override
+        protected void setup(Context context) {
+            outputs = new MultipleOutputs<Text, Writable>(context);
+        }
+
+        public void reduce(Text key, Iterable<IndexSegments.JoinValue> values, Context context) throws IOException, InterruptedException {
+            IndexSegments.ManifestEntry owner = null;
+            postings.clear();
+
+            for (IndexSegments.JoinValue value : values) {
+                Writable inner = value.get();
+                if (inner instanceof Text)
+                    postings.add(inner.toString());
+                else
+                    owner = IndexSegments.newer(owner, (IndexSegments.ManifestEntry) inner);
+            }
+
+            boolean live = owner != null && !owner.isDeleted();
+            if (live)
+                outputs.write(IndexSegments.PAGES_DIR, key, owner.getHash(), IndexSegments.PAGES_DIR + "/part");
+
+            for (String posting : postings) {
+                int first = posting.indexOf('|');
+                int second = posting.indexOf('|', first + 1);
+                if (!live || Integer.parseInt(posting.substring(0, first)) != owner.getSegment()) {
+                    context.getCounter(Counters.POSTINGS_DROPPED).increment(1);
+                    continue;
+                }
+
+                word.set(posting.substring(second + 1));
+                urlCount.set(key, Integer.parseInt(posting.substring(first + 1, second)));
+                context.write(word, urlCount);
+                context.getCounter(Counters.POSTINGS_LIVE).increment(1);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    public static Job createJoinJob(Configuration conf, Path[] segments, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "inverted-index-compact-join");
+        job.setJarByClass(CompactIndex.class);
+        job.setReducerClass(LiveReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(IndexSegments.JoinValue.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(UrlCount.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        for (Path segment : segments) {
+            // A segment of tombstones alone has no postings
+            Path postings = new Path(segment, "part-r-*");
+            FileStatus[] statuses = segment.getFileSystem(conf).globStatus(postings);
+            if (statuses != null && statuses.length != 0)
+                MultipleInputs.addInputPath(job, postings, IndexSegments.SegmentInputFormat.class, PostingsMapper.class);
+        }
+        IndexSegments.addManifestInputs(job, segments);
+        MultipleOutputs.addNamedOutput(job, IndexSegments.PAGES_DIR, TextOutputFormat.class, Text.class, Text.class);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static Job createMergeJob(Configuration conf, Path joinedPath, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "inverted-index-compact");
+        job.setJarByClass(CompactIndex.class);
+        job.setMapperClass(Mapper.class);
+        job.setReducerClass(InvertedIndex.CountsReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(UrlCount.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        SequenceFileInputFormat.addInputPath(job, new Path(joinedPath, "part-r-*"));
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    // Next to the output, where the join job leaves the live postings and pages
+    private static Path joinedPath(Path outputPath) {
+        return new Path(outputPath.getParent(), "_" + outputPath.getName() + "-joined");
+    }
+
+    /**
+     * Runs both jobs, leaving the joined output for the caller to delete.
+     */
+    private static boolean merge(Configuration conf, Path[] segments, Path joinedPath, Path outputPath) throws Exception {
+        if (!JobRuns.waitFor(createJoinJob(conf, segments, joinedPath)))
+            return false;
+
+        return JobRuns.waitFor(createMergeJob(conf, joinedPath, outputPath));
+    }
+
+    /**
+     * Writes the live postings of every segment to outputPath.
+     */
+    public static boolean export(Configuration conf, Path root, Path outputPath) throws Exception {
+        Path[] segments = IndexSegments.listSegments(conf, root);
+        Path joinedPath = joinedPath(outputPath);
+
+        boolean success = merge(conf, segments, joinedPath, outputPath);
+        joinedPath.getFileSystem(conf).delete(joinedPath, true);
+        return success;
+    }
+
+    /**
+     * Replaces every segment with a single one.
+     */
+    public static boolean compact(Configuration conf, Path root) throws Exception {
+        Path[] segments = IndexSegments.listSegments(conf, root);
+        if (segments.length <= 1)
+            return true;
+
+        Path segmentPath = IndexSegments.nextSegmentPath(conf, root);
+        Path joinedPath = joinedPath(segmentPath);
+        FileSystem fs = segmentPath.getFileSystem(conf);
+
+        Configuration jobConf = new Configuration(conf);
+        // Complete only once the manifest is moved in
+        jobConf.setBoolean(FileOutputCommitter.SUCCESSFUL_JOB_OUTPUT_DIR_MARKER, false);
+        if (!merge(jobConf, segments, joinedPath, segmentPath)) {
+            fs.delete(joinedPath, true);
+            return false;
+        }
+
+        Path livePages = new Path(joinedPath, IndexSegments.PAGES_DIR);
+        if (fs.exists(livePages))
+            fs.rename(livePages, IndexSegments.pagesPath(segmentPath));
+        fs.delete(joinedPath, true);
+        fs.create(new Path(segmentPath, "_SUCCESS")).close();
+
+        // Older segments, complete or not, are all merged or useless now
+        int number = IndexSegments.segmentNumber(segmentPath);
+        for (FileStatus status : fs.globStatus(new Path(root, IndexSegments.SEGMENT_PREFIX + "*"))) {
+            if (IndexSegments.segmentNumber(status.getPath()) < number)
+                fs.delete(status.getPath(), true);
+        }
+
+        System.out.println("Compacted " + segments.length + " segments into " + segmentPath.getName());
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D run.report.dir=<report-dir>] <index-dir> [export-dir]");
+            return;
+        }
+
+        RunReport report = new RunReport("compact-index");
+        boolean success = false;
+        try {
+            Path root = new Path(args[0]);
+            success = args.length == 2 ? export(conf, root, new Path(args[1])) : compact(conf, root);
+        } finally {
+            report.write(conf, success);
+        }
+
+        System.exit(success ? 0 : 1);
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Precomputes the ranking of the search function at index build time. The
+ * postings of every word get the final PageRank of their page attached and
+ * are written ordered by score (pagerank + min(count, 20) / 20), so the top
+ * k pages of a word are its first k postings:
+ *   `word\turl|count|pagerank|url|count|pagerank...`
+ * Long lists are split into lines of invindex.reduce.max-line-bytes, in the
+ * same order.
+ *
+ * Two jobs: the first joins the InvertedIndex and PageRank outputs by url,
+ * the second groups by word with a secondary sort on the score, so postings
+ * come in order to the reducer and lists are never sorted in memory.
+ * invindex.impact.depth keeps only the best postings of every word.
+ */
+public class ImpactIndex {
+    // Max postings kept per word, -1 keeps all of them
+    public static final String DEPTH = "invindex.impact.depth";
+
+    public static final int COUNT_CAP = 20;
+
+    public static enum Counters {
+        PAGES_WITHOUT_RANK,
+        POSTINGS_TRUNCATED,
+        POSTINGS_LINES_SPLIT,
+    }
+
+    // What the count of a word adds to the score of a page, also used by QueryEngine
+    public static double countScore(int count) {
+        return (double) Math.min(count, COUNT_CAP) / COUNT_CAP;
+    }
+
+    public static double score(double pagerank, int count) {
+        return pagerank + countScore(count);
+    }
+
+    public static class JoinValue extends GenericWritable {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static final Class<? extends Writable>[] TYPES = new Class[] { Text.class, DoubleWritable.class };
+
+        @Override
+        protected Class<? extends Writable>[] getTypes() {
+            return TYPES;
+        }
+    }
+
+    /**
+     * Emits (url, `word|count`) for every posting of an InvertedIndex line.
+     */
+    public static class PostingsMapper extends Mapper<Object, Text, Text, JoinValue> {
+        private Text url = new Text();
+        private Text wordCount = new Text();
+        private JoinValue value = new JoinValue();
+
+        public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+            String text = line.toString();
+            int tab = text.indexOf('\t');
+            if (tab < 0)
+                return;
+
+            String word = text.substring(0, tab);
+            String[] postings = text.substring(tab + 1).split("\\|");
+            for (int i = 0; i + 1 < postings.length; i += 2) {
+                url.set(postings[i]);
+                wordCount.set(word + '|' + postings[i + 1]);
+                value.set(wordCount);
+                context.write(url, value);
+            }
+        }
+    }
+
+    /**
+     * Emits (url, rank) for every `url|rank` line of the PageRank output.
+     */
+    public static class RankMapper extends Mapper<Object, Text, Text, JoinValue> {
+        private Text url = new Text();
+        private DoubleWritable rank = new DoubleWritable();
+        private JoinValue value = new JoinValue();
+
+        public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+            String text = line.toString();
+            int tab = text.indexOf('\t');
+            if (tab >= 0)
+                text = text.substring(0, tab);
+
+            int separator = text.lastIndexOf('|');
+            if (separator < 0)
+                return;
+
+            url.set(text.substring(0, separator));
+            rank.set(Double.parseDouble(text.substring(separator + 1)));
+            value.set(rank);
+            context.write(url, value);
+        }
+    }
+
+    /**
+     * Attaches the rank of a page to all its postings, pages without rank get 0.
+     */
+    public static class AttachReducer extends Reducer<Text, JoinValue, ScoredPostingKey, Text> {
+        private ScoredPostingKey outKey = new ScoredPostingKey();
+        private Text word = new Text();
+        private Text posting = new Text();
+        private ArrayList<String> wordCounts = new ArrayList<String>();
+
+        public void reduce(Text key, Iterable<JoinValue> values, Context context) throws IOException, InterruptedException {
+            double rank = Double.NaN;
+            wordCounts.clear();
+
+            for (JoinValue value : values) {
+                Writable inner = value.get();
+                if (inner instanceof Text)
+                    wordCounts.add(inner.toString());
+                else
+                    rank = ((DoubleWritable) inner).get();
+            }
+
+            if (wordCounts.isEmpty())
+                return;
+
+            if (Double.isNaN(rank)) {
+                context.getCounter(Counters.PAGES_WITHOUT_RANK).increment(1);
+                rank = 0;
+            }
+
+            String urlRank = '|' + String.valueOf(rank);
+            for (String wordCount : wordCounts) {
+                int separator = wordCount.indexOf('|');
+                String count = wordCount.substring(separator + 1);
+
+                word.set(wordCount.substring(0, separator));
+                outKey.set(word, score(rank, Integer.parseInt(count)), key);
+                posting.set(key.toString() + '|' + count + urlRank);
+                context.write(outKey, posting);
+            }
+        }
+    }
+
+    public static class WordPartitioner extends Partitioner<ScoredPostingKey, Text> {
+        @Override
+        public int getPartition(ScoredPostingKey key, Text value, int numPartitions) {
+            return (key.getWord().hashCode() & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    public static class WordGroupingComparator extends WritableComparator {
+        public WordGroupingComparator() {
+            super(ScoredPostingKey.class, true);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return ((ScoredPostingKey) a).getWord().compareTo(((ScoredPostingKey) b).getWord());
+        }
+    }
+
+    /**
+     * Joins the postings of a word, which come sorted by score, up to depth.
+     * Like InvertedIndex.StreamingPostingsReducer, a line is written every
+     * max-line-bytes so the list is never held whole.
+     */
+    public static class ImpactReducer extends Reducer<ScoredPostingKey, Text, Text, Text> {
+        private static final byte[] SEPARATOR = { '|' };
+
+        private int depth;
+        private int maxLineBytes;
+        private Text word = new Text();
+        private Text line = new Text();
+        private long truncated = 0;
+        private long linesSplit = 0;
+
+        @Override
+        protected void setup(Context context) {
+            depth = context.getConfiguration().getInt(DEPTH, -1);
+            maxLineBytes = context.getConfiguration().getInt(InvertedIndex.MAX_LINE_BYTES, InvertedIndex.DEFAULT_MAX_LINE_BYTES);
+        }
+
+        private void append(Text posting, Context context) throws IOException, InterruptedException {
+            if (line.getLength() != 0 && line.getLength() + 1 + posting.getLength() > maxLineBytes) {
+                context.write(word, line);
+                line.clear();
+                linesSplit++;
+            }
+
+            if (line.getLength() != 0)
+                line.append(SEPARATOR, 0, 1);
+            line.append(posting.getBytes(), 0, posting.getLength());
+        }
+
+        public void reduce(ScoredPostingKey key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // The key changes as values are iterated, copy the word first
+            word.set(key.getWord());
+            line.clear();
+
+            int written = 0;
+            for (Text posting : values) {
+                if (depth >= 0 && written == depth) {
+                    truncated++;
+                    continue;
+                }
+
+                append(posting, context);
+                written++;
+            }
+
+            if (line.getLength() != 0)
+                context.write(word, line);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            context.getCounter(Counters.POSTINGS_TRUNCATED).increment(truncated);
+            context.getCounter(Counters.POSTINGS_LINES_SPLIT).increment(linesSplit);
+        }
+    }
+
+    public static Job createAttachJob(Configuration conf, Path invIndexPath, Path pageRankPath, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "impact-index-attach");
+        job.setJarByClass(ImpactIndex.class);
+        job.setReducerClass(AttachReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(JoinValue.class);
+        job.setOutputKeyClass(ScoredPostingKey.class);
+        job.setOutputValueClass(Text.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        MultipleInputs.addInputPath(job, invIndexPath, TextInputFormat.class, PostingsMapper.class);
+        MultipleInputs.addInputPath(job, pageRankPath, TextInputFormat.class, RankMapper.class);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static Job createSortJob(Configuration conf, Path attachedPath, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "impact-index-sort");
+        job.setJarByClass(ImpactIndex.class);
+        job.setMapperClass(Mapper.class);
+        job.setReducerClass(ImpactReducer.class);
+        job.setPartitionerClass(WordPartitioner.class);
+        job.setGroupingComparatorClass(WordGroupingComparator.class);
+        job.setMapOutputKeyClass(ScoredPostingKey.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        SequenceFileInputFormat.addInputPath(job, attachedPath);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 4) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D invindex.impact.depth=<postings>] [-D invindex.reduce.max-line-bytes=<bytes>]");
+            System.out.println("           [-D run.report.dir=<report-dir>]");
+            System.out.println("           <inv-index-output-dir> <page-rank-output-dir> <temp-dir> <output-dir>");
+            return;
+        }
+
+        RunReport report = new RunReport("impact-index");
+        boolean success = false;
+        try {
+            Path attachedPath = new Path(args[2], "impact-attached");
+            if (JobRuns.waitFor(createAttachJob(conf, new Path(args[0]), new Path(args[1]), attachedPath))) {
+                success = JobRuns.waitFor(createSortJob(conf, attachedPath, new Path(args[3])));
+                attachedPath.getFileSystem(conf).delete(attachedPath, true);
+            }
+        } finally {
+            report.write(conf, success);
+        }
+
+        if (!success)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Indexes a crawl into a new segment of an incremental index (see
+ * IndexSegments), only the pages whose url is new or whose content hash
+ * changed are tokenized, pages of the index missing from the crawl get a
+ * tombstone. The first run indexes everything into seg-00000.
+ *
+ * Two jobs: the first hashes every page and joins the hashes with the
+ * manifests by url, writing the manifest of the segment and the paths of
+ * the new and changed pages, the second indexes only those pages like
+ * InvertedIndex.
+ *
+ * Once there are more than invindex.segments.max-deltas segments after the
+ * first one, they are compacted into a single one (see CompactIndex).
+ */
+public class IncrementalIndex {
+    public static final String MAX_DELTAS = "invindex.segments.max-deltas";
+    public static final int DEFAULT_MAX_DELTAS = 8;
+
+    // Output of the diff job, the pages the delta job reads
+    public static final String CHANGED_PATHS = "invindex.segments.changed-paths";
+
+    public static enum Counters {
+        PAGES_UNCHANGED,
+        PAGES_NEW,
+        PAGES_CHANGED,
+        PAGES_DELETED,
+    }
+
+    /**
+     * Emits (url, `hash\tpath`) for every page of the crawl, without parsing it.
+     */
+    public static class HashMapper extends Mapper<Object, Text, Text, IndexSegments.JoinValue> {
+        private Text url = new Text();
+        private Text hashPath = new Text();
+        private IndexSegments.JoinValue value = new IndexSegments.JoinValue();
+
+        public void map(Object key, Text page, Context context) throws IOException, InterruptedException {
+            String path = key.toString();
+            url.set(CrawlUrls.urlFromPath(path));
+            hashPath.set(IndexSegments.hashContent(page.getBytes(), page.getLength()) + '\t' + path);
+            value.set(hashPath);
+            context.write(url, value);
+        }
+    }
+
+    /**
+     * Compares the hash of a crawled page with the one of its owner. New and
+     * changed pages get their path written to the output and their hash to
+     * the pages/ manifest, indexed pages missing from the crawl a tombstone.
+     */
+    public static class DiffReducer extends Reducer<Text, IndexSegments.JoinValue, Text, Writable> {
+        private MultipleOutputs<Text, Writable> outputs;
+        private Text hash = new Text();
+        private Text path = new Text();
+        private Text tombstone = new Text(IndexSegments.TOMBSTONE);
+
+        @Override
+        protected void setup(Context context) {
+            outputs = new MultipleOutputs<Text, Writable>(context);
+        }
+
+        public void reduce(Text key, Iterable<IndexSegments.JoinValue> values, Context context) throws IOException, InterruptedException {
+            IndexSegments.ManifestEntry owner = null;
+            String hashPath = null;
+
+            for (IndexSegments.JoinValue value : values) {
+                if (value.get() instanceof Text)
+                    hashPath = value.get().toString();
+                else
+                    owner = IndexSegments.newer(owner, (IndexSegments.ManifestEntry) value.get());
+            }
+
+            if (hashPath == null) {
+                if (owner != null && !owner.isDeleted()) {
+                    outputs.write(IndexSegments.PAGES_DIR, key, tombstone, IndexSegments.PAGES_DIR + "/part");
+                    context.getCounter(Counters.PAGES_DELETED).increment(1);
+                }
+
+                return;
+            }
+
+            int tab = hashPath.indexOf('\t');
+            hash.set(hashPath.substring(0, tab));
+            if (owner != null && owner.getHash().equals(hash)) {
+                context.getCounter(Counters.PAGES_UNCHANGED).increment(1);
+                return;
+            }
+
+            context.getCounter(owner == null || owner.isDeleted() ? Counters.PAGES_NEW : Counters.PAGES_CHANGED).increment(1);
+            outputs.write(IndexSegments.PAGES_DIR, key, hash, IndexSegments.PAGES_DIR + "/part");
+
+            path.set(hashPath.substring(tab + 1));
+            context.write(path, NullWritable.get());
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+        }
+    }
+
+    /**
+     * Accepts the pages listed in CHANGED_PATHS and the directories above
+     * them. It only runs in the driver, when the delta job lists its input,
+     * so tasks never load the list.
+     */
+    public static class ChangedPagesFilter implements PathFilter, Configurable {
+        private Configuration conf;
+        private HashSet<Path> accepted = new HashSet<Path>();
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            accepted.clear();
+
+            try {
+                Path changedPaths = new Path(conf.get(CHANGED_PATHS), "part-r-*");
+                FileSystem fs = changedPaths.getFileSystem(conf);
+                FileStatus[] files = fs.globStatus(changedPaths);
+                if (files == null)
+                    return;
+
+                for (FileStatus file : files) {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            // Stops at the first directory already accepted
+                            Path path = new Path(line);
+                            while (path != null && accepted.add(path))
+                                path = path.getParent();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public boolean accept(Path path) {
+            return accepted.contains(path);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Class<? extends InputFormat> crawlInputFormat(Configuration conf) {
+        if (conf.getBoolean(CombineWholeFileInputFormat.COMBINE_INPUT, true))
+            return CombineWholeFileInputFormat.class;
+
+        return WholeFileInputFormat.class;
+    }
+
+    public static Job createDiffJob(Configuration conf, Path inputPath, Path[] segments, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "inverted-index-delta-diff");
+        job.setJarByClass(IncrementalIndex.class);
+        job.setReducerClass(DiffReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(IndexSegments.JoinValue.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        MultipleInputs.addInputPath(job, inputPath, crawlInputFormat(conf), HashMapper.class);
+        IndexSegments.addManifestInputs(job, segments);
+        MultipleOutputs.addNamedOutput(job, IndexSegments.PAGES_DIR, TextOutputFormat.class, Text.class, Text.class);
+        FileInputFormat.setInputDirRecursive(job, true);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static Job createJob(Configuration conf, Path inputPath, Path diffPath, Path segmentPath) throws IOException {
+        conf = new Configuration(conf);
+        conf.set(CHANGED_PATHS, diffPath.toString());
+        // The driver marks the segment complete once its manifest is moved in
+        conf.setBoolean(FileOutputCommitter.SUCCESSFUL_JOB_OUTPUT_DIR_MARKER, false);
+
+        Job job = Job.getInstance(conf, "inverted-index-delta");
+        job.setJarByClass(IncrementalIndex.class);
+        job.setMapperClass(InvertedIndex.TermCountMapper.class);
+        job.setReducerClass(InvertedIndex.CountsReducer.class);
+        job.setMapOutputValueClass(UrlCount.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setInputFormatClass(crawlInputFormat(conf));
+        FileInputFormat.addInputPath(job, inputPath);
+        FileInputFormat.setInputDirRecursive(job, true);
+        FileInputFormat.setInputPathFilter(job, ChangedPagesFilter.class);
+        FileOutputFormat.setOutputPath(job, segmentPath);
+        return job;
+    }
+
+    /**
+     * Adds a segment with the changes of the crawl at inputPath, returns
+     * false if a job failed.
+     */
+    public static boolean run(Configuration conf, Path inputPath, Path root) throws Exception {
+        Path[] segments = IndexSegments.listSegments(conf, root);
+        Path segmentPath = IndexSegments.nextSegmentPath(conf, root);
+        // Hidden from listSegments and nextSegmentPath
+        Path diffPath = new Path(root, "_" + segmentPath.getName() + "-diff");
+        FileSystem fs = segmentPath.getFileSystem(conf);
+
+        Job diffJob = createDiffJob(conf, inputPath, segments, diffPath);
+        if (!JobRuns.waitFor(diffJob)) {
+            fs.delete(diffPath, true);
+            return false;
+        }
+
+        long changed = diffJob.getCounters().findCounter(Counters.PAGES_NEW).getValue()
+            + diffJob.getCounters().findCounter(Counters.PAGES_CHANGED).getValue();
+        long deleted = diffJob.getCounters().findCounter(Counters.PAGES_DELETED).getValue();
+        System.out.println("Indexed " + changed + " new or changed pages, " + deleted + " deleted");
+
+        if (changed == 0 && deleted == 0) {
+            fs.delete(diffPath, true);
+            return true;
+        }
+
+        if (changed == 0)
+            fs.mkdirs(segmentPath);
+        else if (!JobRuns.waitFor(createJob(conf, inputPath, diffPath, segmentPath))) {
+            fs.delete(diffPath, true);
+            return false;
+        }
+
+        fs.rename(new Path(diffPath, IndexSegments.PAGES_DIR), IndexSegments.pagesPath(segmentPath));
+        fs.delete(diffPath, true);
+        fs.create(new Path(segmentPath, "_SUCCESS")).close();
+
+        int maxDeltas = conf.getInt(MAX_DELTAS, DEFAULT_MAX_DELTAS);
+        if (IndexSegments.listSegments(conf, root).length - 1 > maxDeltas)
+            return CompactIndex.compact(conf, root);
+
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D invindex.segments.max-deltas=<segments>] [-D run.report.dir=<report-dir>]");
+            System.out.println("           <input-dir> <index-dir>");
+            return;
+        }
+
+        // Compactions it triggers are part of the run
+        RunReport report = new RunReport("incremental-index");
+        boolean success = false;
+        try {
+            success = run(conf, new Path(args[0]), new Path(args[1]));
+        } finally {
+            report.write(conf, success);
+        }
+
+        System.exit(success ? 0 : 1);
+    }
+}
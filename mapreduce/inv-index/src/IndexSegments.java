@@ -0,0 +1,254 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+
+/**
+ * An incremental index is a directory of segments, seg-00000, seg-00001...
+ * Each one is a regular InvertedIndex output (part-r-* files) for the pages
+ * indexed in it, plus a manifest under pages/ with a `url\thash` line for
+ * every one of them and a `url\t-` tombstone for every page deleted since
+ * the previous segment.
+ *
+ * The newest segment mentioning a url owns it: its postings of that url are
+ * the live ones (none for a tombstone) and older segments' are ignored.
+ * Only segments with a _SUCCESS marker are read.
+ *
+ * Jobs find the owners in the shuffle: the manifests are an input keyed by
+ * url (see addManifestInputs) and the reducer of a url keeps the entry of
+ * its newest segment, so no task holds the pages of the whole index.
+ */
+public class IndexSegments {
+    public static final String SEGMENT_PREFIX = "seg-";
+    public static final String PAGES_DIR = "pages";
+    public static final String TOMBSTONE = "-";
+
+    /**
+     * A manifest line in the shuffle: the segment it comes from and the hash
+     * of the url there, or a tombstone.
+     */
+    public static class ManifestEntry implements Writable {
+        private int segment;
+        private Text hash = new Text();
+
+        public int getSegment() {
+            return segment;
+        }
+
+        public Text getHash() {
+            return hash;
+        }
+
+        public boolean isDeleted() {
+            return TOMBSTONE.equals(hash.toString());
+        }
+
+        public void set(int segment, String hash) {
+            this.segment = segment;
+            this.hash.set(hash);
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(segment);
+            hash.write(out);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            segment = in.readInt();
+            hash.readFields(in);
+        }
+    }
+
+    // A ManifestEntry, or the Text a job joins with the owner of the url
+    public static class JoinValue extends GenericWritable {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static final Class<? extends Writable>[] TYPES = new Class[] { ManifestEntry.class, Text.class };
+
+        @Override
+        protected Class<? extends Writable>[] getTypes() {
+            return TYPES;
+        }
+    }
+
+    /**
+     * Text lines keyed by the number of the segment of their file, either a
+     * seg-NNNNN/part-r-* postings file or a seg-NNNNN/pages/part-* manifest.
+     * Mappers under MultipleInputs only see a tagged split, the reader gets
+     * the file one.
+     */
+    public static class SegmentInputFormat extends FileInputFormat<IntWritable, Text> {
+        @Override
+        public RecordReader<IntWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+            return new SegmentRecordReader();
+        }
+    }
+
+    public static class SegmentRecordReader extends RecordReader<IntWritable, Text> {
+        private LineRecordReader lines = new LineRecordReader();
+        private IntWritable segment = new IntWritable();
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            lines.initialize(split, context);
+
+            Path parent = ((FileSplit) split).getPath().getParent();
+            if (parent.getName().equals(PAGES_DIR))
+                parent = parent.getParent();
+            segment.set(segmentNumber(parent));
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            return lines.nextKeyValue();
+        }
+
+        @Override
+        public IntWritable getCurrentKey() {
+            return segment;
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return lines.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return lines.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            lines.close();
+        }
+    }
+
+    /**
+     * Emits (url, ManifestEntry) for every `url\thash` line of the manifests.
+     */
+    public static class ManifestMapper extends Mapper<IntWritable, Text, Text, JoinValue> {
+        private Text url = new Text();
+        private ManifestEntry entry = new ManifestEntry();
+        private JoinValue value = new JoinValue();
+
+        public void map(IntWritable segment, Text line, Context context) throws IOException, InterruptedException {
+            String text = line.toString();
+            int tab = text.lastIndexOf('\t');
+            if (tab < 0)
+                return;
+
+            url.set(text.substring(0, tab));
+            entry.set(segment.get(), text.substring(tab + 1));
+            value.set(entry);
+            context.write(url, value);
+        }
+    }
+
+    /**
+     * The newest of the manifest entries of a url, null if none. Values
+     * are new instances (GenericWritable doesn't reuse them), so the owner
+     * stays valid while the rest are iterated.
+     */
+    public static ManifestEntry newer(ManifestEntry owner, ManifestEntry entry) {
+        return owner == null || entry.getSegment() > owner.getSegment() ? entry : owner;
+    }
+
+    public static int segmentNumber(Path segmentPath) {
+        return Integer.parseInt(segmentPath.getName().substring(SEGMENT_PREFIX.length()));
+    }
+
+    public static Path segmentPath(Path root, int segment) {
+        return new Path(root, String.format("%s%05d", SEGMENT_PREFIX, segment));
+    }
+
+    public static Path pagesPath(Path segmentPath) {
+        return new Path(segmentPath, PAGES_DIR);
+    }
+
+    /**
+     * Complete segments, oldest first.
+     */
+    public static Path[] listSegments(Configuration conf, Path root) throws IOException {
+        FileSystem fs = root.getFileSystem(conf);
+        FileStatus[] statuses = fs.globStatus(new Path(root, SEGMENT_PREFIX + "*"));
+        if (statuses == null)
+            return new Path[0];
+
+        ArrayList<Path> segments = new ArrayList<Path>();
+        for (FileStatus status : statuses) {
+            if (fs.exists(new Path(status.getPath(), "_SUCCESS")))
+                segments.add(status.getPath());
+        }
+
+        segments.sort((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+        return segments.toArray(new Path[segments.size()]);
+    }
+
+    public static Path nextSegmentPath(Configuration conf, Path root) throws IOException {
+        FileSystem fs = root.getFileSystem(conf);
+        FileStatus[] statuses = fs.globStatus(new Path(root, SEGMENT_PREFIX + "*"));
+
+        // Incomplete segments are skipped too, never reused
+        int next = 0;
+        if (statuses != null) {
+            for (FileStatus status : statuses)
+                next = Math.max(next, segmentNumber(status.getPath()) + 1);
+        }
+
+        return segmentPath(root, next);
+    }
+
+    /**
+     * Adds the manifests of segments as ManifestMapper inputs of a job
+     * using MultipleInputs.
+     */
+    public static void addManifestInputs(Job job, Path[] segments) throws IOException {
+        for (Path segment : segments) {
+            Path manifests = new Path(pagesPath(segment), "part-*");
+            FileStatus[] statuses = segment.getFileSystem(job.getConfiguration()).globStatus(manifests);
+            if (statuses != null && statuses.length != 0)
+                MultipleInputs.addInputPath(job, manifests, SegmentInputFormat.class, ManifestMapper.class);
+        }
+    }
+
+    /**
+     * Hex of the first 8 bytes of the md5 of a page.
+     */
+    public static String hashContent(byte[] bytes, int length) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(bytes, 0, length);
+
+            byte[] digest = md5.digest();
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; ++i)
+                hex.append(String.format("%02x", digest[i]));
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,108 +1,485 @@
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class InvertedIndex {
+    // "none" (the default) emits one record per occurrence, "in-mapper" counts words per page in the mapper
+    public static final String AGGREGATION = "invindex.map.aggregation";
+    public static final String AGGREGATION_NONE = "none";
+    public static final String AGGREGATION_IN_MAPPER = "in-mapper";
+
+    // Shuffles (word, url) keys sorted by url, so the reducer counts postings
+    // as they stream by instead of holding a map of every url of a word
+    public static final String SECONDARY_SORT = "invindex.reduce.secondary-sort";
+    // Postings lines longer than this (in bytes) are split, a word gets several lines
+    public static final String MAX_LINE_BYTES = "invindex.reduce.max-line-bytes";
+    public static final int DEFAULT_MAX_LINE_BYTES = 1024 * 1024;
+    // Words spread over several reducers by url (comma separated), and over how many
+    public static final String HOT_WORDS = "invindex.skew.hot-words";
+    public static final String SALTS = "invindex.skew.salts";
+    public static final int DEFAULT_SALTS = 8;
+
+    public static enum Counters {
+        PAGES,
+        TOKENS_ACCEPTED,
+        TOKENS_REJECTED,
+        PARSE_MILLIS,
+        TOKENIZE_MILLIS,
+        POSTINGS_SALTED,
+        POSTINGS_LINES_SPLIT,
+    }
+
     private final static Pattern validWordPattern = Pattern.compile("[a-zA-Z0-9]+");
     private final static Pattern tokenSeparator = Pattern.compile("( |,|\\.|-|_|;)");
-    private final static Pattern htmlExtPat = Pattern.compile("\\.html");
 
-    public static String urlFromPath(String path) {
-        String[] parts = path.split("/");
+    /**
+     * Adds every valid word (lower cased) of the text of a page to words, one
+     * entry per occurrence. Returns the number of tokens rejected, the ones
+     * with something left that isn't a word.
+     */
+    public static int collectWords(String text, List<String> words) {
+        int rejected = 0;
+        String[] tokens = tokenSeparator.split(text);
+        for (String token : tokens) {
+            token = token
+                .replaceAll("(\"|\'|\\[|\\]|\\(|\\)|\\$|#|\\?|!|\\*|\u00BF|\u00A1|%|\\+)", "")
+                .trim();
+
+            Matcher matcher = validWordPattern.matcher(token);
+            if (matcher.matches())
+                words.add(token.toLowerCase());
+            else if (!token.isEmpty())
+                rejected++;
+        }
+
+        return rejected;
+    }
+
+    /**
+     * Counts the occurrences of every url and joins them as `url|count|url|count...`.
+     */
+    public static String joinPostings(Iterable<Text> urls) {
+        HashMap<String, Integer> urlCount = new HashMap<String, Integer>();
+
+        for (Text path : urls) {
+            String temp = path.toString();
+        
+            Integer count = urlCount.getOrDefault(temp, 0);
+            urlCount.put(temp, count + 1);
+        }
+
+        return joinPostings(urlCount);
+    }
+
+    /**
+     * Sums the counts of every url and joins them like joinPostings, urlCount
+     * is scratch space reused between words.
+     */
+    public static String joinCounts(Iterable<UrlCount> values, HashMap<String, Integer> urlCount) {
+        urlCount.clear();
+        for (UrlCount value : values)
+            urlCount.merge(value.getUrl().toString(), value.getCount(), Integer::sum);
 
-        boolean foundDomain = false;
-        StringBuilder urlBuilder = new StringBuilder();
-        for (String part : parts) {
-            foundDomain = foundDomain | part.contains(".");
-            if (!foundDomain)
-                continue;
+        return joinPostings(urlCount);
+    }
 
-            urlBuilder.append(part);
-            urlBuilder.append("/");
+    public static String joinPostings(Map<String, Integer> urlCount) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : urlCount.entrySet()) {
+            stringBuilder.append(entry.getKey() + '|' + entry.getValue());
+            stringBuilder.append('|');
         }
 
-        String url = urlBuilder.substring(0, urlBuilder.length() - 1);
-        return htmlExtPat.matcher(url).replaceAll("");
+        return stringBuilder.substring(0, stringBuilder.length() - 1);
+    }
+
+    /**
+     * Page, token and time counts of the mappers, flushed to the counters
+     * once per task.
+     */
+    static class MapStats {
+        long pages = 0;
+        long accepted = 0;
+        long rejected = 0;
+        long parseNanos = 0;
+        long tokenizeNanos = 0;
+
+        void flush(Mapper<?, ?, ?, ?>.Context context) {
+            context.getCounter(Counters.PAGES).increment(pages);
+            context.getCounter(Counters.TOKENS_ACCEPTED).increment(accepted);
+            context.getCounter(Counters.TOKENS_REJECTED).increment(rejected);
+            context.getCounter(Counters.PARSE_MILLIS).increment(parseNanos / 1000000);
+            context.getCounter(Counters.TOKENIZE_MILLIS).increment(tokenizeNanos / 1000000);
+        }
     }
 
     public static class TokenizerMapper extends Mapper<Object, Text, Text, Text> {
         private Text url = new Text();
         private Text word = new Text();
+        private ArrayList<String> words = new ArrayList<String>();
+        private MapStats stats = new MapStats();
 
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            Document doc = Jsoup.parse(value.toString());
+            long start = System.nanoTime();
+            Document doc = CrawlPages.parse(value);
             String text = doc.body().text();
+            long parsed = System.nanoTime();
 
-            FileSplit split = (FileSplit) context.getInputSplit();
-            url.set(urlFromPath(split.getPath().toString()));
+            url.set(CrawlUrls.urlFromPath(key.toString()));
 
-            String[] tokens = tokenSeparator.split(text);
-            for (String token : tokens) {
-                token = token
-                    .replaceAll("(\"|\'|\\[|\\]|\\(|\\)|\\$|#|\\?|!|\\*|¿|¡|%|\\+)", "")
-                    .trim();
+            words.clear();
+            stats.rejected += collectWords(text, words);
+            stats.accepted += words.size();
+            stats.pages++;
+            stats.parseNanos += parsed - start;
+            stats.tokenizeNanos += System.nanoTime() - parsed;
 
-                Matcher matcher = validWordPattern.matcher(token);
-                if (matcher.matches()) {
-                    word.set(token.toLowerCase());
-                    context.write(word, url);
-                }
+            for (String token : words) {
+                word.set(token);
+                context.write(word, url);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            stats.flush(context);
+        }
+    }
+
+    /**
+     * Counts the words of a page in the mapper, emitting a single (word, url,
+     * count) record per distinct word instead of one per occurrence.
+     */
+    public static class TermCountMapper extends Mapper<Object, Text, Text, UrlCount> {
+        private Text url = new Text();
+        private Text word = new Text();
+        private UrlCount urlCount = new UrlCount();
+
+        private WordTokenizer tokenizer = new WordTokenizer();
+        private TermCounter counter = new TermCounter();
+        private MapStats stats = new MapStats();
+
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            Document doc = CrawlPages.parse(value);
+            String text = doc.body().text();
+            long parsed = System.nanoTime();
+
+            url.set(CrawlUrls.urlFromPath(key.toString()));
+
+            counter.clear();
+            stats.rejected += tokenizer.countWords(text, counter);
+            stats.pages++;
+            stats.parseNanos += parsed - start;
+            stats.tokenizeNanos += System.nanoTime() - parsed;
+
+            for (int i = 0; i < counter.size(); ++i) {
+                int count = counter.get(i, word);
+                stats.accepted += count;
+                urlCount.set(url, count);
+                context.write(word, urlCount);
             }
         }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            stats.flush(context);
+        }
     }
 
     public static class PathsReducer extends Reducer<Text, Text, Text, Text> {
         private Text result = new Text();
 
         public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-            HashMap<String, Integer> urlCount = new HashMap<String, Integer>();
+            result.set(joinPostings(values));
+            context.write(key, result);
+        }
+    }
+
+    public static class CountsReducer extends Reducer<Text, UrlCount, Text, Text> {
+        private Text result = new Text();
+        private HashMap<String, Integer> urlCount = new HashMap<String, Integer>();
+
+        public void reduce(Text key, Iterable<UrlCount> values, Context context) throws IOException, InterruptedException {
+            result.set(joinCounts(values, urlCount));
+            context.write(key, result);
+        }
+    }
+
+    /**
+     * Emits a ((word, url), count) record per distinct word of a page, or per
+     * occurrence without in-mapper aggregation. Hot words get a salt.
+     */
+    public static class PostingMapper extends Mapper<Object, Text, PostingKey, VIntWritable> {
+        private boolean inMapper;
+        private HashSet<Text> hotWords = new HashSet<Text>();
+        private int salts;
+
+        private Text url = new Text();
+        private Text word = new Text();
+        private PostingKey posting = new PostingKey();
+        private VIntWritable count = new VIntWritable();
+
+        private WordTokenizer tokenizer = new WordTokenizer();
+        private TermCounter counter = new TermCounter();
+        private ArrayList<String> words = new ArrayList<String>();
+        private MapStats stats = new MapStats();
+        private long salted = 0;
+
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            inMapper = AGGREGATION_IN_MAPPER.equals(conf.get(AGGREGATION, AGGREGATION_NONE));
+            for (String hotWord : conf.getTrimmedStrings(HOT_WORDS))
+                hotWords.add(new Text(hotWord));
+            salts = conf.getInt(SALTS, DEFAULT_SALTS);
+        }
+
+        private void write(int occurrences, Context context) throws IOException, InterruptedException {
+            int salt = 0;
+            if (salts > 1 && hotWords.contains(word)) {
+                salt = 1 + (url.hashCode() & Integer.MAX_VALUE) % salts;
+                salted++;
+            }
+
+            posting.set(word, url, salt);
+            count.set(occurrences);
+            context.write(posting, count);
+        }
+
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            Document doc = CrawlPages.parse(value);
+            String text = doc.body().text();
+            long parsed = System.nanoTime();
 
-            for (Text path : values) {
-                String temp = path.toString();
-            
-                Integer count = urlCount.getOrDefault(temp, 0);
-                urlCount.put(temp, count + 1);
+            url.set(CrawlUrls.urlFromPath(key.toString()));
+
+            if (inMapper) {
+                counter.clear();
+                stats.rejected += tokenizer.countWords(text, counter);
+            } else {
+                words.clear();
+                stats.rejected += collectWords(text, words);
             }
+            stats.pages++;
+            stats.parseNanos += parsed - start;
+            stats.tokenizeNanos += System.nanoTime() - parsed;
 
-            StringBuilder stringBuilder = new StringBuilder();
-            for (HashMap.Entry<String, Integer> entry : urlCount.entrySet()) {
-                stringBuilder.append(entry.getKey() + '|' + entry.getValue());
-                stringBuilder.append('|');
+            if (inMapper) {
+                for (int i = 0; i < counter.size(); ++i) {
+                    int occurrences = counter.get(i, word);
+                    stats.accepted += occurrences;
+                    write(occurrences, context);
+                }
+            } else {
+                for (String token : words) {
+                    word.set(token);
+                    stats.accepted++;
+                    write(1, context);
+                }
             }
+        }
 
-            result.set(stringBuilder.substring(0, stringBuilder.length() - 1));
-            context.write(key, result);
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            stats.flush(context);
+            context.getCounter(Counters.POSTINGS_SALTED).increment(salted);
         }
     }
 
-    public static void main(String[] args) throws Exception {
-        Configuration conf = new Configuration();
+    /**
+     * Sums the counts of a (word, url) key, the combiner groups by the whole key.
+     */
+    public static class PostingCountCombiner extends Reducer<PostingKey, VIntWritable, PostingKey, VIntWritable> {
+        private VIntWritable count = new VIntWritable();
+
+        public void reduce(PostingKey key, Iterable<VIntWritable> values, Context context) throws IOException, InterruptedException {
+            int sum = 0;
+            for (VIntWritable value : values)
+                sum += value.get();
+
+            count.set(sum);
+            context.write(key, count);
+        }
+    }
+
+    /**
+     * By word, plus the salt for hot words: a url always lands on the same
+     * reducer, a hot word on up to invindex.skew.salts of them.
+     */
+    public static class PostingPartitioner extends Partitioner<PostingKey, VIntWritable> {
+        @Override
+        public int getPartition(PostingKey key, VIntWritable value, int numPartitions) {
+            int hash = key.getWord().hashCode();
+            if (key.getSalt() != 0)
+                hash = hash * 31 + key.getSalt();
+
+            return (hash & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    public static class PostingGroupingComparator extends WritableComparator {
+        public PostingGroupingComparator() {
+            super(PostingKey.class, true);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return ((PostingKey) a).getWord().compareTo(((PostingKey) b).getWord());
+        }
+    }
+
+    /**
+     * Joins the postings of a word as they come, sorted by url: counts of the
+     * same url are adjacent, so only the current url and the line being built
+     * are kept. Lines are written every invindex.reduce.max-line-bytes.
+     */
+    public static class StreamingPostingsReducer extends Reducer<PostingKey, VIntWritable, Text, Text> {
+        private static final byte[] SEPARATOR = { '|' };
+
+        private int maxLineBytes;
+        private Text word = new Text();
+        private Text url = new Text();
+        private Text line = new Text();
+        private byte[] digits = new byte[10];
+        private long linesSplit = 0;
+
+        @Override
+        protected void setup(Context context) {
+            maxLineBytes = context.getConfiguration().getInt(MAX_LINE_BYTES, DEFAULT_MAX_LINE_BYTES);
+        }
+
+        private void append(int count, Context context) throws IOException, InterruptedException {
+            if (line.getLength() != 0 && line.getLength() + url.getLength() + digits.length + 2 > maxLineBytes) {
+                context.write(word, line);
+                line.clear();
+                linesSplit++;
+            }
+
+            if (line.getLength() != 0)
+                line.append(SEPARATOR, 0, 1);
+            line.append(url.getBytes(), 0, url.getLength());
+            line.append(SEPARATOR, 0, 1);
+
+            int start = digits.length;
+            do {
+                digits[--start] = (byte) ('0' + count % 10);
+                count /= 10;
+            } while (count != 0);
+            line.append(digits, start, digits.length - start);
+        }
+
+        public void reduce(PostingKey key, Iterable<VIntWritable> values, Context context) throws IOException, InterruptedException {
+            // The key changes as values are iterated, copy the word first
+            word.set(key.getWord());
+            line.clear();
+
+            int count = 0;
+            for (VIntWritable value : values) {
+                if (count != 0 && !key.getUrl().equals(url)) {
+                    append(count, context);
+                    count = 0;
+                }
+                if (count == 0)
+                    url.set(key.getUrl());
+                count += value.get();
+            }
+            if (count != 0)
+                append(count, context);
+
+            if (line.getLength() != 0)
+                context.write(word, line);
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+            context.getCounter(Counters.POSTINGS_LINES_SPLIT).increment(linesSplit);
+        }
+    }
+
+    public static Job createJob(Configuration conf, Path inputPath, Path outputPath) throws IOException {
         Job job = Job.getInstance(conf, "inverted-index");
         job.setJarByClass(InvertedIndex.class);
-        job.setMapperClass(TokenizerMapper.class);
-        job.setReducerClass(PathsReducer.class);
+        if (conf.getBoolean(SECONDARY_SORT, false)) {
+            job.setMapperClass(PostingMapper.class);
+            job.setCombinerClass(PostingCountCombiner.class);
+            job.setPartitionerClass(PostingPartitioner.class);
+            job.setGroupingComparatorClass(PostingGroupingComparator.class);
+            job.setReducerClass(StreamingPostingsReducer.class);
+            job.setMapOutputKeyClass(PostingKey.class);
+            job.setMapOutputValueClass(VIntWritable.class);
+        } else if (AGGREGATION_IN_MAPPER.equals(conf.get(AGGREGATION, AGGREGATION_NONE))) {
+            job.setMapperClass(TermCountMapper.class);
+            job.setReducerClass(CountsReducer.class);
+            job.setMapOutputValueClass(UrlCount.class);
+        } else {
+            job.setMapperClass(TokenizerMapper.class);
+            job.setReducerClass(PathsReducer.class);
+        }
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(Text.class);
-        job.setInputFormatClass(WholeFileInputFormat.class);
-        FileInputFormat.addInputPath(job, new Path(args[0]));
+        if (conf.getBoolean(CombineWholeFileInputFormat.COMBINE_INPUT, true))
+            job.setInputFormatClass(CombineWholeFileInputFormat.class);
+        else
+            job.setInputFormatClass(WholeFileInputFormat.class);
+        FileInputFormat.addInputPath(job, inputPath);
         FileInputFormat.setInputDirRecursive(job, true);
-        FileOutputFormat.setOutputPath(job, new Path(args[1]));
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D invindex.map.aggregation=none (default)|in-mapper] [-D invindex.output.binary=<index-file>]");
+            System.out.println("           [-D invindex.output.binary.verify=true]");
+            System.out.println("           [-D invindex.reduce.secondary-sort=true] [-D invindex.reduce.max-line-bytes=<bytes>]");
+            System.out.println("           [-D invindex.skew.hot-words=<word,...>] [-D invindex.skew.salts=<reducers>]");
+            System.out.println("           [-D run.report.dir=<report-dir>] <input-dir> <output-dir>");
+            System.exit(2);
+        }
+
+        RunReport report = new RunReport("inverted-index");
+        boolean success = false;
+        try {
+            Job job = createJob(conf, new Path(args[0]), new Path(args[1]));
+            if (JobRuns.waitFor(job)) {
+                String binaryOutput = conf.get(BinaryIndexWriter.OUTPUT);
+                if (binaryOutput != null)
+                    BinaryIndexWriter.write(conf, new Path(args[1]), new Path(binaryOutput));
+                success = true;
+            }
+        } finally {
+            report.write(conf, success);
+        }
+
+        if (!success)
+            System.exit(1);
     }
 }
\ No newline at end of file
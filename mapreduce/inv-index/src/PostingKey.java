@@ -0,0 +1,70 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A posting keyed for the secondary sort of InvertedIndex: by word, then by
+ * url. The salt only picks the reducer of a hot word (see
+ * InvertedIndex.PostingPartitioner), it's derived from the url so it never
+ * takes part in the ordering.
+ */
+public class PostingKey implements WritableComparable<PostingKey> {
+    private Text word = new Text();
+    private Text url = new Text();
+    private int salt = 0;
+
+    public Text getWord() {
+        return word;
+    }
+
+    public Text getUrl() {
+        return url;
+    }
+
+    public int getSalt() {
+        return salt;
+    }
+
+    public void set(Text word, Text url, int salt) {
+        this.word.set(word);
+        this.url.set(url);
+        this.salt = salt;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        word.write(out);
+        url.write(out);
+        WritableUtils.writeVInt(out, salt);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        word.readFields(in);
+        url.readFields(in);
+        salt = WritableUtils.readVInt(in);
+    }
+
+    @Override
+    public int compareTo(PostingKey other) {
+        int cmp = word.compareTo(other.word);
+        if (cmp != 0)
+            return cmp;
+
+        return url.compareTo(other.url);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PostingKey && compareTo((PostingKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return word.hashCode();
+    }
+}
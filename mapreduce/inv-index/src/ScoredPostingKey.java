@@ -0,0 +1,71 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A posting keyed for the secondary sort of ImpactIndex: by word, then by
+ * final score (highest first), then by url.
+ */
+public class ScoredPostingKey implements WritableComparable<ScoredPostingKey> {
+    private Text word = new Text();
+    private double score = 0;
+    private Text url = new Text();
+
+    public Text getWord() {
+        return word;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public Text getUrl() {
+        return url;
+    }
+
+    public void set(Text word, double score, Text url) {
+        this.word.set(word);
+        this.score = score;
+        this.url.set(url);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        word.write(out);
+        out.writeDouble(score);
+        url.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        word.readFields(in);
+        score = in.readDouble();
+        url.readFields(in);
+    }
+
+    @Override
+    public int compareTo(ScoredPostingKey other) {
+        int cmp = word.compareTo(other.word);
+        if (cmp != 0)
+            return cmp;
+
+        cmp = Double.compare(other.score, score);
+        if (cmp != 0)
+            return cmp;
+
+        return url.compareTo(other.url);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ScoredPostingKey && compareTo((ScoredPostingKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return word.hashCode();
+    }
+}
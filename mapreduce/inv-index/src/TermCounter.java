@@ -0,0 +1,123 @@
+import org.apache.hadoop.io.Text;
+
+/**
+ * Counts the occurrences of every word of a page. Words are stored as bytes
+ * in a single arena and looked up through an open addressing table, so once
+ * the buffers have grown to fit the largest page no allocation happens.
+ */
+public class TermCounter {
+    private byte[] arena = new byte[16 * 1024];
+    private int arenaSize = 0;
+
+    // Per slot of the table, count == 0 marks an empty slot
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] hashes = new int[1024];
+    private int[] counts = new int[1024];
+
+    // Slots in insertion order
+    private int[] order = new int[1024];
+    private int size = 0;
+
+    public void clear() {
+        for (int i = 0; i < size; ++i)
+            counts[order[i]] = 0;
+
+        size = 0;
+        arenaSize = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(byte[] word, int length) {
+        int hash = hash(word, length);
+        int mask = counts.length - 1;
+
+        int slot = hash & mask;
+        while (counts[slot] != 0) {
+            if (hashes[slot] == hash && equals(slot, word, length)) {
+                counts[slot] += 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (arenaSize + length > arena.length) {
+            byte[] grown = new byte[Math.max(arena.length * 2, arenaSize + length)];
+            System.arraycopy(arena, 0, grown, 0, arenaSize);
+            arena = grown;
+        }
+
+        System.arraycopy(word, 0, arena, arenaSize, length);
+        offsets[slot] = arenaSize;
+        lengths[slot] = length;
+        hashes[slot] = hash;
+        counts[slot] = 1;
+        arenaSize += length;
+
+        order[size++] = slot;
+        if (size * 2 > counts.length)
+            rehash();
+    }
+
+    /**
+     * Sets word to the i-th distinct word (in insertion order) and returns its count.
+     */
+    public int get(int i, Text word) {
+        int slot = order[i];
+        word.set(arena, offsets[slot], lengths[slot]);
+        return counts[slot];
+    }
+
+    private boolean equals(int slot, byte[] word, int length) {
+        if (lengths[slot] != length)
+            return false;
+
+        int offset = offsets[slot];
+        for (int i = 0; i < length; ++i) {
+            if (arena[offset + i] != word[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private static int hash(byte[] word, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < length; ++i) {
+            hash ^= word[i];
+            hash *= 0x01000193;
+        }
+
+        return hash;
+    }
+
+    private void rehash() {
+        int capacity = counts.length * 2;
+        int[] oldOffsets = offsets, oldLengths = lengths, oldHashes = hashes, oldCounts = counts;
+
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+
+        int[] newOrder = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; ++i) {
+            int oldSlot = order[i];
+            int slot = oldHashes[oldSlot] & mask;
+            while (counts[slot] != 0)
+                slot = (slot + 1) & mask;
+
+            offsets[slot] = oldOffsets[oldSlot];
+            lengths[slot] = oldLengths[oldSlot];
+            hashes[slot] = oldHashes[oldSlot];
+            counts[slot] = oldCounts[oldSlot];
+            newOrder[i] = slot;
+        }
+
+        order = newOrder;
+    }
+}
@@ -0,0 +1,40 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A posting: the url of a page and how many times a word appears in it.
+ */
+public class UrlCount implements Writable {
+    private Text url = new Text();
+    private int count = 0;
+
+    public Text getUrl() {
+        return url;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void set(Text url, int count) {
+        this.url.set(url);
+        this.count = count;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        url.write(out);
+        WritableUtils.writeVInt(out, count);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        url.readFields(in);
+        count = WritableUtils.readVInt(in);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Hand written version of the token rules of InvertedIndex.collectWords,
+ * without regexes or intermediate strings:
+ *  - tokens are separated by ' ', ',', '.', '-', '_' and ';'
+ *  - the characters " ' [ ] ( ) $ # ? ! * \u00BF \u00A1 % + are dropped
+ *  - what's left, trimmed, must be made of ascii letters and digits only
+ *  - words are lower cased
+ */
+public class WordTokenizer {
+    private byte[] word = new byte[64];
+    private int length;
+
+    private static final int LEADING = 0;
+    private static final int WORD = 1;
+    private static final int TRAILING = 2;
+    private static final int INVALID = 3;
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == ',' || c == '.' || c == '-' || c == '_' || c == ';';
+    }
+
+    private static boolean isDropped(char c) {
+        switch (c) {
+            case '"': case '\'': case '[': case ']': case '(': case ')': case '$':
+            case '#': case '?': case '!': case '*': case '\u00BF': case '\u00A1':
+            case '%': case '+':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Characters removed by String.trim()
+    private static boolean isTrimmed(char c) {
+        return c <= ' ';
+    }
+
+    /**
+     * Adds every word of text to counter. Returns the number of tokens
+     * rejected, the ones with something left that isn't a word.
+     */
+    public int countWords(CharSequence text, TermCounter counter) {
+        int state = LEADING;
+        int rejected = 0;
+        length = 0;
+
+        for (int i = 0, n = text.length(); i <= n; ++i) {
+            char c = i < n ? text.charAt(i) : ' ';
+
+            if (isSeparator(c)) {
+                if (state == INVALID)
+                    rejected++;
+                else if (length != 0)
+                    counter.add(word, length);
+
+                state = LEADING;
+                length = 0;
+                continue;
+            }
+
+            if (state == INVALID || isDropped(c))
+                continue;
+
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                state = state == TRAILING ? INVALID : WORD;
+                append((byte) c);
+            } else if (c >= 'A' && c <= 'Z') {
+                state = state == TRAILING ? INVALID : WORD;
+                append((byte) (c + ('a' - 'A')));
+            } else if (isTrimmed(c)) {
+                if (state == WORD)
+                    state = TRAILING;
+            } else {
+                state = INVALID;
+            }
+        }
+
+        return rejected;
+    }
+
+    private void append(byte b) {
+        if (length == word.length) {
+            byte[] grown = new byte[word.length * 2];
+            System.arraycopy(word, 0, grown, 0, length);
+            word = grown;
+        }
+
+        word[length++] = b;
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/**
+ * Turns the edges written by BuildUrlDictionary into the int id graph the
+ * page rank iterations run on: (id, PageRankNode with the ids of its out-links).
+ *
+ * Pages start with INITIAL_RANK, unless the `url|rank` output of a previous
+ * run is given (warm start): pages ranked there start with their previous
+ * rank and only new pages get the initial one, so after a small crawl the
+ * iterations start close to the fixed point. Link targets that were never
+ * crawled but have a previous rank are added too (without out-links), the
+ * first iteration needs their dangling mass.
+ *
+ * With personalized vectors (see RankVectors) every rank of a page starts
+ * with INITIAL_RANK and its node gets the vectors whose teleport set it's in.
+ */
+public class BuildIdGraph {
+    public static final double INITIAL_RANK = 1;
+
+    // Page rank output of a previous run to seed the ranks from
+    public static final String PREVIOUS_RANKS = "pagerank.warm.previous";
+
+    public static enum Counters {
+        EDGES,
+        PAGES_SEEDED,
+        PAGES_NEW,
+        TARGETS_SEEDED,
+        // Rank of the dangling pages of the graph, see CalcPageRank.COUNTER_SCALE
+        DANGLING_MASS_SCALED,
+    }
+
+    public static class SeedValue extends GenericWritable {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static final Class<? extends Writable>[] TYPES = new Class[] { LongWritable.class, DoubleWritable.class, IntWritable.class };
+
+        @Override
+        protected Class<? extends Writable>[] getTypes() {
+            return TYPES;
+        }
+    }
+
+    public static class EdgeMapper extends Mapper<Text, LongWritable, Text, SeedValue> {
+        private SeedValue value = new SeedValue();
+
+        public void map(Text key, LongWritable pendingId, Context context) throws IOException, InterruptedException {
+            value.set(pendingId);
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * Emits (url, id) for every url of the dictionary, only read on warm starts.
+     */
+    public static class DictionaryMapper extends Mapper<Text, LongWritable, Text, SeedValue> {
+        private long[] offsets;
+        private IntWritable id = new IntWritable();
+        private SeedValue value = new SeedValue();
+
+        @Override
+        protected void setup(Context context) {
+            offsets = BuildUrlDictionary.getOffsets(context.getConfiguration());
+        }
+
+        public void map(Text key, LongWritable pendingId, Context context) throws IOException, InterruptedException {
+            id.set(BuildUrlDictionary.resolveId(pendingId.get(), offsets));
+            value.set(id);
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * Emits (url, rank) for every `url|rank` line of a previous output.
+     */
+    public static class PreviousRankMapper extends Mapper<Object, Text, Text, SeedValue> {
+        private Text url = new Text();
+        private DoubleWritable rank = new DoubleWritable();
+        private SeedValue value = new SeedValue();
+
+        public void map(Object key, Text line, Context context) throws IOException, InterruptedException {
+            String text = line.toString();
+            int separator = text.lastIndexOf('|');
+            if (separator < 0)
+                return;
+
+            url.set(text.substring(0, separator));
+            rank.set(Double.parseDouble(text.substring(separator + 1)));
+            value.set(rank);
+            context.write(url, value);
+        }
+    }
+
+    public static class IdGraphReducer extends Reducer<Text, SeedValue, IntWritable, PageRankNode> {
+        private long[] offsets;
+        private IntWritable id = new IntWritable();
+        private PageRankNode node = new PageRankNode();
+        private double danglingMass = 0;
+
+        private RankVectors vectors;
+        private double[] teleportSizes;
+
+        @Override
+        protected void setup(Context context) {
+            offsets = BuildUrlDictionary.getOffsets(context.getConfiguration());
+            vectors = RankVectors.get(context.getConfiguration());
+            if (vectors != null)
+                teleportSizes = new double[vectors.size()];
+        }
+
+        public void reduce(Text key, Iterable<SeedValue> values, Context context) throws IOException, InterruptedException {
+            node.setStructure(INITIAL_RANK, vectors == null ? 1 : vectors.size());
+            boolean crawled = false;
+            int dictionaryId = -1;
+            double previousRank = Double.NaN;
+
+            for (SeedValue value : values) {
+                Writable inner = value.get();
+                if (inner instanceof DoubleWritable) {
+                    previousRank = ((DoubleWritable) inner).get();
+                    continue;
+                } else if (inner instanceof IntWritable) {
+                    dictionaryId = ((IntWritable) inner).get();
+                    continue;
+                }
+
+                long pendingId = ((LongWritable) inner).get();
+                if (BuildUrlDictionary.isSource(pendingId)) {
+                    id.set(BuildUrlDictionary.resolveId(pendingId, offsets));
+                    crawled = true;
+                } else {
+                    node.addOutLink(BuildUrlDictionary.resolveId(pendingId, offsets));
+                }
+            }
+
+            if (!crawled) {
+                // Ranked in the previous run but not even linked to anymore, or a new link target
+                if (dictionaryId < 0 || Double.isNaN(previousRank))
+                    return;
+
+                id.set(dictionaryId);
+                node.setRank(previousRank);
+                danglingMass += previousRank;
+                context.getCounter(Counters.TARGETS_SEEDED).increment(1);
+                context.write(id, node);
+                return;
+            }
+
+            if (Double.isNaN(previousRank)) {
+                context.getCounter(Counters.PAGES_NEW).increment(1);
+            } else {
+                node.setRank(previousRank);
+                context.getCounter(Counters.PAGES_SEEDED).increment(1);
+            }
+
+            if (vectors != null) {
+                long teleport = vectors.teleportMask(key.toString());
+                node.setTeleport(teleport);
+                for (int k = 0; k < teleportSizes.length; ++k)
+                    teleportSizes[k] += (teleport >>> k) & 1;
+            }
+
+            context.getCounter(Counters.EDGES).increment(node.getOutDegree());
+            context.write(id, node);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.getCounter(Counters.DANGLING_MASS_SCALED).increment(CalcPageRank.toCounter(danglingMass));
+            if (vectors != null)
+                TaskSideFiles.writeDoubles(context, RankVectors.TELEPORT_SIZES_FILE, teleportSizes);
+        }
+    }
+
+    public static Job createJob(Configuration conf, Path dictionaryOutputPath, Path outputPath) throws IOException {
+        conf = new Configuration(conf);
+        BuildUrlDictionary.setOffsets(conf, BuildUrlDictionary.readOffsets(conf, dictionaryOutputPath));
+
+        Job job = Job.getInstance(conf, "build-id-graph");
+        job.setJarByClass(BuildIdGraph.class);
+        job.setReducerClass(IdGraphReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(SeedValue.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(PageRankNode.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        MultipleInputs.addInputPath(job, BuildUrlDictionary.edgesPath(dictionaryOutputPath),
+                SequenceFileInputFormat.class, EdgeMapper.class);
+        if (conf.get(PREVIOUS_RANKS) != null) {
+            MultipleInputs.addInputPath(job, BuildUrlDictionary.dictionaryPath(dictionaryOutputPath),
+                    SequenceFileInputFormat.class, DictionaryMapper.class);
+            MultipleInputs.addInputPath(job, new Path(conf.get(PREVIOUS_RANKS)), TextInputFormat.class, PreviousRankMapper.class);
+        }
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        Job job = createJob(conf, new Path(args[0]), new Path(args[1]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
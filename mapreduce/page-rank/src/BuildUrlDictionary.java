@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/**
+ * Assigns a dense int id to every url of the link graph, crawled pages and
+ * link targets alike.
+ *
+ * Every reducer numbers its urls from 0, the id of a url is that local id
+ * plus the offset of its partition (the number of urls of every partition
+ * before it). Offsets are only known once the job is done, so records carry
+ * a "pending" id, (partition << 32 | local id), until they are resolved.
+ *
+ * Outputs:
+ *  - dictionary/part-r-*: (url, pending id) for every url
+ *  - edges/part-r-*: (source url, pending id of a target), plus one record
+ *    with SOURCE_FLAG set holding the pending id of the source itself
+ *  - _urls-<partition>: the number of urls of every partition, see
+ *    TaskSideFiles, the offsets are computed from them
+ */
+public class BuildUrlDictionary {
+    public static final String DICTIONARY_OUTPUT = "dictionary";
+    public static final String EDGES_OUTPUT = "edges";
+    public static final String OFFSETS = "pagerank.dictionary.offsets";
+
+    public static final long SOURCE_FLAG = 1L << 62;
+
+    // Side file of every reducer with its number of urls
+    private static final String URL_COUNT_FILE = "urls";
+
+    public static long pendingId(int partition, int localId) {
+        return ((long) partition << 32) | localId;
+    }
+
+    public static int resolveId(long pendingId, long[] offsets) {
+        long withoutFlag = pendingId & ~SOURCE_FLAG;
+        return (int) (offsets[(int) (withoutFlag >>> 32)] + (withoutFlag & 0xffffffffL));
+    }
+
+    public static boolean isSource(long pendingId) {
+        return (pendingId & SOURCE_FLAG) != 0;
+    }
+
+    public static class UrlMapper extends Mapper<Text, TextArrayWritable, Text, Text> {
+        private final Text sourceMarker = new Text();
+
+        public void map(Text key, TextArrayWritable value, Context context) throws IOException, InterruptedException {
+            context.write(key, sourceMarker);
+
+            for (Writable outLink : value.get())
+                context.write((Text) outLink, key);
+        }
+    }
+
+    public static class IdReducer extends Reducer<Text, Text, Text, LongWritable> {
+        private MultipleOutputs<Text, LongWritable> outputs;
+        private LongWritable pendingId = new LongWritable();
+        private LongWritable sourceId = new LongWritable();
+
+        private int partition;
+        private int nextLocalId = 0;
+
+        @Override
+        protected void setup(Context context) {
+            outputs = new MultipleOutputs<Text, LongWritable>(context);
+            partition = context.getTaskAttemptID().getTaskID().getId();
+        }
+
+        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            pendingId.set(pendingId(partition, nextLocalId++));
+            outputs.write(DICTIONARY_OUTPUT, key, pendingId, DICTIONARY_OUTPUT + "/part");
+
+            for (Text source : values) {
+                if (source.getLength() == 0) {
+                    sourceId.set(pendingId.get() | SOURCE_FLAG);
+                    outputs.write(EDGES_OUTPUT, key, sourceId, EDGES_OUTPUT + "/part");
+                } else {
+                    outputs.write(EDGES_OUTPUT, source, pendingId, EDGES_OUTPUT + "/part");
+                }
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+            TaskSideFiles.writeLongs(context, URL_COUNT_FILE, new long[] { nextLocalId });
+        }
+    }
+
+    public static void setOffsets(Configuration conf, long[] offsets) {
+        String[] values = new String[offsets.length];
+        for (int i = 0; i < offsets.length; ++i)
+            values[i] = String.valueOf(offsets[i]);
+
+        conf.setStrings(OFFSETS, values);
+    }
+
+    public static long[] getOffsets(Configuration conf) {
+        String[] values = conf.getStrings(OFFSETS);
+        long[] offsets = new long[values.length];
+        for (int i = 0; i < values.length; ++i)
+            offsets[i] = Long.parseLong(values[i]);
+
+        return offsets;
+    }
+
+    /**
+     * Offset of every partition of a dictionary, computed from the url counts
+     * its reducers left next to it. The last element is the total number of urls.
+     */
+    public static long[] readOffsets(Configuration conf, Path outputPath) throws IOException {
+        int partitions = TaskSideFiles.taskCount(conf, outputPath, URL_COUNT_FILE);
+        long[][] counts = TaskSideFiles.readLongs(conf, outputPath, URL_COUNT_FILE, partitions);
+
+        long[] offsets = new long[partitions + 1];
+        for (int i = 0; i < partitions; ++i) {
+            if (counts[i].length != 1)
+                throw new IOException("No url count for partition " + i + " of " + outputPath);
+            offsets[i + 1] = offsets[i] + counts[i][0];
+        }
+
+        if (offsets[partitions] > Integer.MAX_VALUE)
+            throw new IOException("Too many urls for int ids: " + offsets[partitions]);
+
+        return offsets;
+    }
+
+    public static Path dictionaryPath(Path outputPath) {
+        return new Path(outputPath, DICTIONARY_OUTPUT);
+    }
+
+    public static Path edgesPath(Path outputPath) {
+        return new Path(outputPath, EDGES_OUTPUT);
+    }
+
+    public static Job createJob(Configuration conf, Path inputPath, Path outputPath) throws IOException {
+        Job job = Job.getInstance(conf, "build-url-dictionary");
+        job.setJarByClass(BuildUrlDictionary.class);
+        job.setMapperClass(UrlMapper.class);
+        job.setReducerClass(IdReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(LongWritable.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        // Everything goes through the named outputs
+        LazyOutputFormat.setOutputFormatClass(job, SequenceFileOutputFormat.class);
+        MultipleOutputs.addNamedOutput(job, DICTIONARY_OUTPUT, SequenceFileOutputFormat.class, Text.class, LongWritable.class);
+        MultipleOutputs.addNamedOutput(job, EDGES_OUTPUT, SequenceFileOutputFormat.class, Text.class, LongWritable.class);
+        FileInputFormat.addInputPath(job, inputPath);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    /**
+     * Runs the job, returns the partition offsets of its output.
+     */
+    public static long[] run(Configuration conf, Path inputPath, Path outputPath) throws Exception {
+        Job job = createJob(conf, inputPath, outputPath);
+        JobRuns.waitForSuccess(job);
+        return readOffsets(conf, outputPath);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        long[] offsets = run(conf, new Path(args[0]), new Path(args[1]));
+        System.out.println("Urls in dictionary: " + offsets[offsets.length - 1]);
+        System.out.println("Partition offsets: " + Arrays.toString(offsets));
+    }
+}
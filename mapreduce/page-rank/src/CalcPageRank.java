@@ -1,89 +1,500 @@
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class CalcPageRank {
     public static final double DAMPING_FACTOR = 0.85;
 
-    public static class MapOp extends Mapper<Object, Text, Text, Text> {
-        private Text outLinkText = new Text();
-        private Text outRankValue = new Text();
+    // How rank contributions are pre-aggregated before the shuffle: "none", "combiner" or "in-mapper"
+    public static final String AGGREGATION = "pagerank.calc.aggregation";
+    public static final String AGGREGATION_NONE = "none";
+    public static final String AGGREGATION_COMBINER = "combiner";
+    public static final String AGGREGATION_IN_MAPPER = "in-mapper";
 
-        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            String[] urlRankAndOutLinks = value.toString().split("\t");
+    // Max number of distinct targets buffered by the in-mapper mode before flushing
+    public static final String IN_MAPPER_MAX_ENTRIES = "pagerank.calc.in-mapper.max-entries";
+    public static final int DEFAULT_IN_MAPPER_MAX_ENTRIES = 100000;
 
-            String[] urlRank = urlRankAndOutLinks[0].split("\\|");
-            String url = urlRank[0];
-            double rank = Double.parseDouble(urlRank[1]);
+    // Schimmy mode: the graph structure isn't shuffled, every reducer merge-joins the rank mass
+    // with its own partition of the input graph. The input graph must have been written by a
+    // previous CalcPageRank job with the same number of reducers (part-r-<n> holds partition n)
+    public static final String SCHIMMY = "pagerank.calc.schimmy";
+    public static final String SCHIMMY_GRAPH_PATH = "pagerank.calc.schimmy.graph";
 
-            String[] outLinks;
-            if (urlRankAndOutLinks.length == 2) {
-                outLinks = urlRankAndOutLinks[1].split("\\|");
+    // Rank mass of dangling pages (no out-links) in the input graph and the number of nodes in it,
+    // the mass is spread evenly over all nodes so it isn't lost
+    public static final String DANGLING_MASS = "pagerank.calc.dangling-mass";
+    public static final String NODE_COUNT = "pagerank.calc.node-count";
+
+    // Delta mode: every node keeps the change of its rank not sent to its out-links yet (pending)
+    // and only sends it once it goes above this tolerance, ranks are updated by the mass received
+    // instead of being recomputed. After a small graph update only the region around the changed
+    // edges keeps sending mass. Negative disables it, otherwise pending changes are tracked
+    public static final String DELTA_TOLERANCE = "pagerank.calc.delta.tolerance";
+    // Whether the input graph carries pending changes (written by a job with a tolerance), the
+    // dangling mass is then only the part not spread by the previous jobs
+    public static final String DELTA_INPUT = "pagerank.calc.delta.input";
+
+    // With personalized vectors (see RankVectors), the dangling mass of every vector and the
+    // number of pages in its teleport set, comma separated. DANGLING_MASS isn't used then
+    public static final String DANGLING_MASSES = "pagerank.calc.dangling-masses";
+    public static final String TELEPORT_SIZES = "pagerank.calc.teleport-sizes";
+
+    // Counters only hold longs, rank quantities are reported as fixed point values
+    public static final double COUNTER_SCALE = 1e9;
+    // Side file of every reducer with the max rank delta of its nodes, see TaskSideFiles
+    public static final String MAX_DELTA_FILE = "max-delta";
+
+    // Serialized size of a mass record (id + tag + rank)
+    public static final int MASS_RECORD_BYTES = 4 + 1 + 8;
+
+    /**
+     * Serialized size of a mass record with a rank per vector (id + tag +
+     * width + ranks).
+     */
+    public static int massRecordBytes(int width) {
+        return width == 1 ? MASS_RECORD_BYTES : 4 + 1 + 1 + 8 * width;
+    }
+
+    /**
+     * Number of ranks per node: one per personalized vector, or one.
+     */
+    public static int width(Configuration conf) {
+        RankVectors vectors = RankVectors.get(conf);
+        return vectors == null ? 1 : vectors.size();
+    }
+
+    public static enum Counters {
+        // One record per edge, what would be shuffled without any aggregation
+        MASS_RECORDS_UNAGGREGATED,
+        MASS_BYTES_UNAGGREGATED,
+        // Mass records that actually reached the reducers
+        MASS_RECORDS_SHUFFLED,
+        MASS_BYTES_SHUFFLED,
+        // Output graph, used by the driver to check convergence and carry dangling mass. With
+        // personalized vectors the mass and delta are the ones of the first vector, the driver
+        // reads every vector from the RankVectors side files
+        NODES,
+        DANGLING_NODES,
+        DANGLING_MASS_SCALED,
+        RANK_DELTA_L1_SCALED,
+        // Nodes that sent their pending change in delta mode
+        ACTIVE_NODES,
+    }
+
+    public static double fromCounter(long value) {
+        return value / COUNTER_SCALE;
+    }
+
+    public static long toCounter(double value) {
+        return Math.round(value * COUNTER_SCALE);
+    }
+
+    /**
+     * Whether a node of a delta mode input graph sends its pending change.
+     */
+    public static boolean sendsPending(PageRankNode node, double tolerance) {
+        return node.getOutDegree() != 0 && Math.abs(node.getPending()) > tolerance;
+    }
+
+    // Where fanOut sends the mass of every out-link
+    public interface MassSink {
+        void send(int outLink, PageRankNode mass) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Splits the ranks of node (or its pending change, the first rank only)
+     * evenly between its out-links and sends the share of each one to sink
+     * through outRank. masses holds width doubles, the shares end up there.
+     */
+    public static void fanOut(PageRankNode node, int width, boolean pending, double[] masses, PageRankNode outRank,
+            MassSink sink) throws IOException, InterruptedException {
+        int outDegree = node.getOutDegree();
+        if (pending) {
+            masses[0] = node.getPending() / (double) outDegree;
+        } else {
+            for (int k = 0; k < width; ++k)
+                masses[k] = node.getRank(k) / (double) outDegree;
+        }
+        outRank.setMass(masses, width);
+
+        for (int i = 0; i < outDegree; ++i)
+            sink.send(node.getOutLink(i), outRank);
+    }
+
+    public static class MapOp extends Mapper<IntWritable, PageRankNode, IntWritable, PageRankNode> implements MassSink {
+        private Context context;
+        private PageRankNode outRank = new PageRankNode();
+        private int width;
+        private double[] masses;
+
+        private boolean inMapper;
+        private int maxEntries;
+        private MassAccumulator accumulated;
+        private double[] sum;
+        private IntWritable outLinkId = new IntWritable();
+
+        private boolean schimmy;
+
+        private boolean deltaInput;
+        private double tolerance;
+
+        private long activeNodes = 0;
+        private long unaggregatedRecords = 0;
+        private long unaggregatedBytes = 0;
+
+        @Override
+        protected void setup(Context context) {
+            this.context = context;
+            Configuration conf = context.getConfiguration();
+            schimmy = conf.getBoolean(SCHIMMY, false);
+            deltaInput = conf.getBoolean(DELTA_INPUT, false);
+            tolerance = conf.getDouble(DELTA_TOLERANCE, -1);
+            inMapper = AGGREGATION_IN_MAPPER.equals(conf.get(AGGREGATION, AGGREGATION_COMBINER));
+            maxEntries = conf.getInt(IN_MAPPER_MAX_ENTRIES, DEFAULT_IN_MAPPER_MAX_ENTRIES);
+            width = width(conf);
+            masses = new double[width];
+            accumulated = new MassAccumulator(width);
+            sum = new double[width];
+        }
+
+        public void map(IntWritable key, PageRankNode value, Context context) throws IOException, InterruptedException {
+            int outDegree = value.getOutDegree();
+            boolean sends = outDegree != 0;
+            if (deltaInput) {
+                sends = sendsPending(value, tolerance);
+                if (sends)
+                    activeNodes += 1;
+            }
+
+            if (sends) {
+                unaggregatedRecords += outDegree;
+                unaggregatedBytes += outDegree * massRecordBytes(width);
+                fanOut(value, width, deltaInput, masses, outRank, this);
+            }
+
+            // In schimmy mode the reducers read the structure from their graph partition
+            if (!schimmy)
+                context.write(key, value);
+        }
+
+        @Override
+        public void send(int outLink, PageRankNode mass) throws IOException, InterruptedException {
+            if (inMapper) {
+                accumulate(outLink, context);
             } else {
-                outLinks = new String[0];
+                outLinkId.set(outLink);
+                context.write(outLinkId, mass);
             }
+        }
 
-            for (String outLink : outLinks) {
-                outLinkText.set(outLink);
-                double outRank = rank / (double) outLinks.length;
-                outRankValue.set(String.valueOf(outRank));
+        private void accumulate(int outLink, Context context) throws IOException, InterruptedException {
+            accumulated.add(outLink, masses);
+            if (accumulated.size() >= maxEntries)
+                flush(context);
+        }
 
-                context.write(outLinkText, outRankValue);
+        private void flush(Context context) throws IOException, InterruptedException {
+            // sum, not masses, which fanOut may still be sending
+            for (int i = 0; i < accumulated.size(); ++i) {
+                outLinkId.set(accumulated.get(i, sum));
+                outRank.setMass(sum, width);
+                context.write(outLinkId, outRank);
             }
 
-            if (urlRankAndOutLinks.length == 2) {
-                context.write(new Text(url), new Text(urlRankAndOutLinks[1]));
-            } else {
-                context.write(new Text(url), new Text(""));
+            accumulated.clear();
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+
+            context.getCounter(Counters.ACTIVE_NODES).increment(activeNodes);
+            context.getCounter(Counters.MASS_RECORDS_UNAGGREGATED).increment(unaggregatedRecords);
+            context.getCounter(Counters.MASS_BYTES_UNAGGREGATED).increment(unaggregatedBytes);
+        }
+    }
+
+    /**
+     * Sums the rank contributions for a target, the structure of the page
+     * goes through untouched.
+     */
+    public static class CombineOp extends Reducer<IntWritable, PageRankNode, IntWritable, PageRankNode> {
+        private PageRankNode outRank = new PageRankNode();
+        private int width;
+        private double[] accMass;
+
+        @Override
+        protected void setup(Context context) {
+            width = width(context.getConfiguration());
+            accMass = new double[width];
+        }
+
+        public void reduce(IntWritable key, Iterable<PageRankNode> values, Context context) throws IOException, InterruptedException {
+            Arrays.fill(accMass, 0);
+            boolean anyMass = false;
+
+            for (PageRankNode value : values) {
+                if (value.isMass()) {
+                    for (int k = 0; k < width; ++k)
+                        accMass[k] += value.getRank(k);
+                    anyMass = true;
+                } else {
+                    context.write(key, value);
+                }
+            }
+
+            if (anyMass) {
+                outRank.setMass(accMass, width);
+                context.write(key, outRank);
             }
         }
     }
 
-    public static class ReduceOp extends Reducer<Text, Text, Text, Text> {
-        private Text outLinks = new Text();
+    public static class ReduceOp extends Reducer<IntWritable, PageRankNode, IntWritable, PageRankNode> {
+        private PageRankNode result = new PageRankNode();
+
+        private RankVectors vectors;
+        protected int width;
+        protected double[] accMass;
+        // Per vector: dangling mass per teleport page, and teleport rank of the pages of its set
+        // relative to a uniform teleport (1 for every page when it teleports to all of them)
+        private double[] danglingShares;
+        private double[] teleportWeights;
+        private long teleportAll = 0;
+        private boolean deltaInput;
+        private double tolerance;
+
+        private long nodes = 0;
+        private long danglingNodes = 0;
+        private double[] danglingMasses;
+        private double[] deltaL1s;
+        private double deltaMax = 0;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            long nodeCount = conf.getLong(NODE_COUNT, 0);
+            vectors = RankVectors.get(conf);
+            width = vectors == null ? 1 : vectors.size();
+            accMass = new double[width];
+            danglingShares = new double[width];
+            teleportWeights = new double[width];
+            danglingMasses = new double[width];
+            deltaL1s = new double[width];
+
+            if (vectors == null) {
+                danglingShares[0] = nodeCount == 0 ? 0 : conf.getDouble(DANGLING_MASS, 0) / nodeCount;
+                teleportWeights[0] = 1;
+                teleportAll = 1;
+            } else {
+                double[] masses = RankVectors.getDoubles(conf, DANGLING_MASSES, width);
+                double[] sizes = RankVectors.getDoubles(conf, TELEPORT_SIZES, width);
+                for (int k = 0; k < width; ++k) {
+                    danglingShares[k] = nodeCount == 0 ? 0 : masses[k] / nodeCount;
+                    if (vectors.teleportsToAll(k)) {
+                        teleportWeights[k] = 1;
+                        teleportAll |= 1L << k;
+                    } else {
+                        teleportWeights[k] = sizes[k] == 0 ? 0 : nodeCount / sizes[k];
+                    }
+                }
+            }
+
+            deltaInput = conf.getBoolean(DELTA_INPUT, false);
+            tolerance = conf.getDouble(DELTA_TOLERANCE, -1);
+        }
+
+        public void reduce(IntWritable key, Iterable<PageRankNode> values, Context context) throws IOException, InterruptedException {
+            Arrays.fill(accMass, 0);
+
+            // Pages that were only linked to (never crawled) have no structure
+            result.setStructure(0, width);
+            long massRecords = 0;
+            for (PageRankNode value : values) {
+                if (value.isMass()) {
+                    for (int k = 0; k < width; ++k)
+                        accMass[k] += value.getRank(k);
+                    massRecords += 1;
+                } else {
+                    result.setStructure(value);
+                }
+            }
+
+            context.getCounter(Counters.MASS_RECORDS_SHUFFLED).increment(massRecords);
+            context.getCounter(Counters.MASS_BYTES_SHUFFLED).increment(massRecords * massRecordBytes(width));
+
+            writeNode(key, result, accMass, context);
+        }
 
-        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-            double accPageRank = 0;
+        /**
+         * Updates the ranks of a node from the mass it received and writes it.
+         */
+        protected void writeNode(IntWritable key, PageRankNode node, double[] accMass, Context context) throws IOException, InterruptedException {
+            long teleport = node.getTeleport() | teleportAll;
+            for (int k = 0; k < width; ++k) {
+                // Rank teleported to the node, and the dangling mass spread the same way
+                double weight = (teleport & (1L << k)) != 0 ? teleportWeights[k] : 0;
+                double rank = node.getRank(k);
 
-            for (Text value : values) {
-                String temp = value.toString();
+                double accPageRank;
+                if (deltaInput)
+                    accPageRank = rank + DAMPING_FACTOR * (danglingShares[k] + accMass[k]);
+                else
+                    accPageRank = (1 - DAMPING_FACTOR) * weight + (DAMPING_FACTOR * (danglingShares[k] * weight + accMass[k]));
 
-                try {
-                    double pageRank = Double.parseDouble(temp);
-                    accPageRank += pageRank;
-                } catch (Exception e) {
-                    // Not a page rank value, must be an outlink list
-                    outLinks.set(temp);
+                if (tolerance >= 0) {
+                    // Pending changes of dangling pages are spread through the dangling mass instead
+                    double kept = deltaInput && !sendsPending(node, tolerance) ? node.getPending() : 0;
+                    node.setPending(node.getOutDegree() == 0 ? 0 : kept + accPageRank - rank);
                 }
+
+                double delta = Math.abs(accPageRank - rank);
+                deltaL1s[k] += delta;
+                deltaMax = Math.max(deltaMax, delta);
+
+                if (node.getOutDegree() == 0)
+                    danglingMasses[k] += accPageRank;
+
+                node.setRank(k, accPageRank);
             }
 
-            accPageRank = 1 - DAMPING_FACTOR + (DAMPING_FACTOR * accPageRank);
+            nodes += 1;
+            if (node.getOutDegree() == 0)
+                danglingNodes += 1;
 
-            String url = key.toString();
-            String urlRank = url.concat("|").concat(String.valueOf(accPageRank));
-            context.write(new Text(urlRank), outLinks);
+            context.write(key, node);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.getCounter(Counters.NODES).increment(nodes);
+            context.getCounter(Counters.DANGLING_NODES).increment(danglingNodes);
+            context.getCounter(Counters.DANGLING_MASS_SCALED).increment(toCounter(danglingMasses[0]));
+            context.getCounter(Counters.RANK_DELTA_L1_SCALED).increment(toCounter(deltaL1s[0]));
+            if (vectors != null) {
+                double[] sums = Arrays.copyOf(danglingMasses, 2 * width);
+                System.arraycopy(deltaL1s, 0, sums, width, width);
+                TaskSideFiles.writeDoubles(context, RankVectors.VECTOR_SUMS_FILE, sums);
+            }
+
+            // Counters can only be summed, so every reducer reports its own max
+            TaskSideFiles.writeDoubles(context, MAX_DELTA_FILE, new double[] { deltaMax });
         }
 
     }
 
-    public static void main(String[] args) throws Exception {
-        Configuration conf = new Configuration();
+    /**
+     * Reducer for the schimmy mode, only rank mass is shuffled. Reduce keys and
+     * the graph partition are both sorted by id, so they're merged in a single
+     * pass, nodes without any incoming mass are written as they come up.
+     */
+    public static class SchimmyReduceOp extends ReduceOp {
+        private SequenceFile.Reader graphReader;
+        private IntWritable graphId = new IntWritable();
+        private PageRankNode graphNode = new PageRankNode();
+        private boolean graphHasNext;
+
+        private PageRankNode emptyNode = new PageRankNode();
+        private double[] noMass;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            noMass = new double[width];
+
+            Configuration conf = context.getConfiguration();
+            int partition = context.getTaskAttemptID().getTaskID().getId();
+            Path partPath = new Path(conf.get(SCHIMMY_GRAPH_PATH), String.format("part-r-%05d", partition));
+
+            graphReader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partPath));
+            graphHasNext = graphReader.next(graphId, graphNode);
+        }
+
+        public void reduce(IntWritable key, Iterable<PageRankNode> values, Context context) throws IOException, InterruptedException {
+            Arrays.fill(accMass, 0);
+            long massRecords = 0;
+            for (PageRankNode value : values) {
+                for (int k = 0; k < width; ++k)
+                    accMass[k] += value.getRank(k);
+                massRecords += 1;
+            }
+
+            context.getCounter(Counters.MASS_RECORDS_SHUFFLED).increment(massRecords);
+            context.getCounter(Counters.MASS_BYTES_SHUFFLED).increment(massRecords * massRecordBytes(width));
+
+            int id = key.get();
+            while (graphHasNext && graphId.get() < id)
+                advanceGraph(noMass, context);
+
+            if (graphHasNext && graphId.get() == id) {
+                advanceGraph(accMass, context);
+            } else {
+                // Not in the graph yet, only linked to
+                emptyNode.setStructure(0, width);
+                writeNode(key, emptyNode, accMass, context);
+            }
+        }
+
+        private void advanceGraph(double[] accMass, Context context) throws IOException, InterruptedException {
+            writeNode(graphId, graphNode, accMass, context);
+            graphHasNext = graphReader.next(graphId, graphNode);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            while (graphHasNext)
+                advanceGraph(noMass, context);
+
+            IOUtils.closeStream(graphReader);
+            super.cleanup(context);
+        }
+    }
+
+    public static Job createJob(Configuration conf, Path inputPath, Path outputPath) throws IOException {
+        conf = new Configuration(conf);
+        boolean schimmy = conf.getBoolean(SCHIMMY, false);
+        if (schimmy)
+            conf.set(SCHIMMY_GRAPH_PATH, inputPath.toString());
+
         Job job = Job.getInstance(conf, "calc-page-rank");
         job.setJarByClass(CalcPageRank.class);
         job.setMapperClass(MapOp.class);
-        job.setReducerClass(ReduceOp.class);
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
-        FileInputFormat.addInputPath(job, new Path(args[0]));
-        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+        job.setReducerClass(schimmy ? SchimmyReduceOp.class : ReduceOp.class);
+        if (schimmy) {
+            // One reducer per graph partition, so they line up with the hash partitioner
+            FileSystem fs = inputPath.getFileSystem(conf);
+            job.setNumReduceTasks(fs.listStatus(inputPath, path -> path.getName().startsWith("part-r-")).length);
+        }
+        if (AGGREGATION_COMBINER.equals(conf.get(AGGREGATION, AGGREGATION_COMBINER)))
+            job.setCombinerClass(CombineOp.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(PageRankNode.class);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileInputFormat.addInputPath(job, inputPath);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
 
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        Job job = createJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
         System.exit(job.waitForCompletion(true) ? 0 : 1);
     }
-}
\ No newline at end of file
+}
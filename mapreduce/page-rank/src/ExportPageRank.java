@@ -0,0 +1,171 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+/**
+ * Joins the int id graph back with the url dictionary and writes the
+ * `url|rank` text layout consumed by the firestore loader. Runs once, after
+ * the last iteration.
+ *
+ * With personalized vectors (see RankVectors) every vector gets its own
+ * `url|rank` files, in a directory of the output named after it.
+ */
+public class ExportPageRank {
+
+    public static class JoinValue extends GenericWritable {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static final Class<? extends Writable>[] TYPES = new Class[] { Text.class, DoubleWritable.class, PageRankNode.class };
+
+        @Override
+        protected Class<? extends Writable>[] getTypes() {
+            return TYPES;
+        }
+    }
+
+    public static class DictionaryMapper extends Mapper<Text, LongWritable, IntWritable, JoinValue> {
+        private long[] offsets;
+        private IntWritable id = new IntWritable();
+        private JoinValue url = new JoinValue();
+
+        @Override
+        protected void setup(Context context) {
+            offsets = BuildUrlDictionary.getOffsets(context.getConfiguration());
+        }
+
+        public void map(Text key, LongWritable value, Context context) throws IOException, InterruptedException {
+            id.set(BuildUrlDictionary.resolveId(value.get(), offsets));
+            url.set(key);
+            context.write(id, url);
+        }
+    }
+
+    public static class RankMapper extends Mapper<IntWritable, PageRankNode, IntWritable, JoinValue> {
+        private DoubleWritable rank = new DoubleWritable();
+        // Only the ranks of a node, its out-links aren't needed
+        private PageRankNode ranks = new PageRankNode();
+        private double[] values = new double[1];
+        private JoinValue rankValue = new JoinValue();
+        private boolean vectors;
+
+        @Override
+        protected void setup(Context context) {
+            vectors = RankVectors.get(context.getConfiguration()) != null;
+        }
+
+        public void map(IntWritable key, PageRankNode value, Context context) throws IOException, InterruptedException {
+            if (!vectors) {
+                rank.set(value.getRank());
+                rankValue.set(rank);
+            } else {
+                if (values.length < value.getWidth())
+                    values = new double[value.getWidth()];
+                for (int k = 0; k < value.getWidth(); ++k)
+                    values[k] = value.getRank(k);
+                ranks.setMass(values, value.getWidth());
+                rankValue.set(ranks);
+            }
+            context.write(key, rankValue);
+        }
+    }
+
+    public static class JoinReducer extends Reducer<IntWritable, JoinValue, Text, NullWritable> {
+        private Text urlRank = new Text();
+
+        private RankVectors vectors;
+        private MultipleOutputs<Text, NullWritable> outputs;
+        private String[] basePaths;
+
+        @Override
+        protected void setup(Context context) {
+            vectors = RankVectors.get(context.getConfiguration());
+            if (vectors != null) {
+                outputs = new MultipleOutputs<Text, NullWritable>(context);
+                basePaths = new String[vectors.size()];
+                for (int k = 0; k < basePaths.length; ++k)
+                    basePaths[k] = vectors.getName(k) + "/part";
+            }
+        }
+
+        public void reduce(IntWritable key, Iterable<JoinValue> values, Context context) throws IOException, InterruptedException {
+            String url = null;
+            double rank = Double.NaN;
+            // GenericWritable reads every value into a new instance, so it can be kept
+            PageRankNode ranks = null;
+
+            for (JoinValue value : values) {
+                Writable inner = value.get();
+                if (inner instanceof Text)
+                    url = inner.toString();
+                else if (inner instanceof PageRankNode)
+                    ranks = (PageRankNode) inner;
+                else
+                    rank = ((DoubleWritable) inner).get();
+            }
+
+            // Links to pages that were never crawled have no rank until the first iteration
+            if (url == null || (Double.isNaN(rank) && ranks == null))
+                return;
+
+            if (vectors == null) {
+                urlRank.set(url.concat("|").concat(String.valueOf(rank)));
+                context.write(urlRank, NullWritable.get());
+                return;
+            }
+
+            for (int k = 0; k < basePaths.length && k < ranks.getWidth(); ++k) {
+                urlRank.set(url.concat("|").concat(String.valueOf(ranks.getRank(k))));
+                outputs.write(urlRank, NullWritable.get(), basePaths[k]);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (outputs != null)
+                outputs.close();
+        }
+    }
+
+    public static Job createJob(Configuration conf, Path dictionaryOutputPath, Path graphPath, Path outputPath) throws IOException {
+        conf = new Configuration(conf);
+        BuildUrlDictionary.setOffsets(conf, BuildUrlDictionary.readOffsets(conf, dictionaryOutputPath));
+
+        Job job = Job.getInstance(conf, "export-page-rank");
+        job.setJarByClass(ExportPageRank.class);
+        job.setReducerClass(JoinReducer.class);
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(JoinValue.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        // Only the per vector files are written, no empty default ones
+        if (RankVectors.get(conf) != null)
+            LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+        MultipleInputs.addInputPath(job, BuildUrlDictionary.dictionaryPath(dictionaryOutputPath),
+                SequenceFileInputFormat.class, DictionaryMapper.class);
+        MultipleInputs.addInputPath(job, graphPath, SequenceFileInputFormat.class, RankMapper.class);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        Job job = createJob(conf, new Path(args[0]), new Path(args[1]), new Path(args[2]));
+        System.exit(job.waitForCompletion(true) ? 0 : 1);
+    }
+}
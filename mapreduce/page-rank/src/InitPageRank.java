@@ -1,7 +1,10 @@
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -10,128 +13,207 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class InitPageRank {
-    private final static Pattern normalizePat = Pattern.compile("(http:\\/\\/|https:\\/\\/|\\?.*)");
-    private final static Pattern validRefPat = Pattern.compile("^(http|\\/|[a-zA-Z0-9]).*");
-    private final static Pattern htmlExtPat = Pattern.compile("\\.html");
-
-    public static boolean isValidRef(String url) {
-        Matcher matcher = validRefPat.matcher(url);
-        return matcher.matches();
+    private static final Logger LOG = LoggerFactory.getLogger(InitPageRank.class);
+
+    // Which extractor reads the links of a page: "streaming", "jsoup" or "compare" (both, counting differences)
+    public static final String LINK_EXTRACTOR = "pagerank.init.link-extractor";
+    public static final String EXTRACTOR_STREAMING = "streaming";
+    public static final String EXTRACTOR_JSOUP = "jsoup";
+    public static final String EXTRACTOR_COMPARE = "compare";
+    // Pages of a task whose mismatch is logged (at debug level), COMPARED_MISMATCHES counts all of them
+    private static final int LOGGED_MISMATCHES = 10;
+
+    public static enum Counters {
+        PAGES_STREAMED,
+        JSOUP_FALLBACKS,
+        CHARSET_FALLBACKS,
+        COMPARED_MATCHES,
+        COMPARED_MISMATCHES,
+        HREFS,
+        HREFS_INVALID,
+        HREFS_DUPLICATE,
+        OUT_LINKS,
+        EXTRACT_MILLIS,
+        NORMALIZE_MILLIS,
+        URL_CACHE_HITS,
+        URL_CACHE_MISSES,
     }
 
-    public static boolean isAbsoluteUrl(String url) {
-        return url.startsWith("http");
-    }
+    // Pages per out-degree bucket: "0", "1", "2-3", "4-7", ...
+    public static final String OUT_DEGREE_GROUP = "PageRankOutDegree";
 
-    public static String normalizeUrl(String domain, String url) {
-        String absoluteUrl = url;
-        if (!isAbsoluteUrl(absoluteUrl)) {
-            if (absoluteUrl.startsWith("/")) {
-                absoluteUrl = domain.concat(absoluteUrl);
-            } else {    
-                absoluteUrl = domain.concat("/").concat(absoluteUrl);
-            }
-        }
+    public static String outDegreeBucket(int outDegree) {
+        if (outDegree < 2)
+            return String.valueOf(outDegree);
 
-        Matcher matcher = normalizePat.matcher(absoluteUrl);
-        return matcher.replaceAll("");
+        int low = Integer.highestOneBit(outDegree);
+        return low + "-" + (2 * low - 1);
     }
 
-    public static String urlFromPath(String path) {
-        String[] parts = path.split("/");
-
-        boolean foundDomain = false;
-        StringBuilder urlBuilder = new StringBuilder();
-        for (String part : parts) {
-            foundDomain = foundDomain | part.contains(".");
-            if (!foundDomain)
-                continue;
-
-            urlBuilder.append(part);
-            urlBuilder.append("/");
+    /**
+     * Adds the canonical url (see CrawlUrls) of every href of a page that
+     * links to a page to outLinks, without duplicates. Returns the number of
+     * hrefs that do.
+     */
+    public static int collectOutLinks(CrawlUrls.Resolver resolver, String selfUrl, List<String> hrefs,
+            LinkedHashSet<String> outLinks) {
+        resolver.setBase(selfUrl);
+
+        int valid = 0;
+        for (String href : hrefs) {
+            String url = resolver.resolve(href);
+            if (url != null) {
+                outLinks.add(url);
+                valid++;
+            }
         }
 
-        String url = urlBuilder.substring(0, urlBuilder.length() - 1);
-        return htmlExtPat.matcher(url).replaceAll("");
-    }
-
-    public static String getDomain(String url) {
-        int firstSlash = url.indexOf('/');
-        if (firstSlash == -1)
-            return url;
-        else 
-            return url.substring(0, firstSlash);
+        return valid;
     }
 
     public static class OutLinkMapper extends Mapper<Object, Text, Text, Text> {
-        private Text selfUrlAndRank = new Text();
+        private Text selfUrlText = new Text();
         private Text outLink = new Text();
 
+        private String mode;
+        private LinkExtractor extractor = new LinkExtractor();
+        // Whether the streaming extractor can scan pages of a charset, see LinkExtractor.canScan
+        private HashMap<Charset, Boolean> scannable = new HashMap<Charset, Boolean>();
+        private ArrayList<String> hrefs = new ArrayList<String>();
+        private ArrayList<String> jsoupHrefs = new ArrayList<String>();
+        private LinkedHashSet<String> outLinks = new LinkedHashSet<String>();
+        private CrawlUrls.Resolver resolver;
+
+        // Flushed to the counters in cleanup
+        private long hrefCount = 0;
+        private long invalidHrefs = 0;
+        private long duplicateHrefs = 0;
+        private long outLinkCount = 0;
+        private long extractNanos = 0;
+        private long normalizeNanos = 0;
+        private long mismatches = 0;
+        private HashMap<String, Long> outDegrees = new HashMap<String, Long>();
+
+        @Override
+        protected void setup(Context context) {
+            mode = context.getConfiguration().get(LINK_EXTRACTOR, EXTRACTOR_STREAMING);
+            resolver = new CrawlUrls.Resolver(context.getConfiguration().getInt(CrawlUrls.CACHE_SIZE, CrawlUrls.DEFAULT_CACHE_SIZE));
+        }
+
         public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
-            Document doc = Jsoup.parse(value.toString());
-            Elements links = doc.body().getElementsByTag("a");
-
-            FileSplit split = (FileSplit) context.getInputSplit();
-            String pathString = split.getPath().toString();
-            String selfUrl = urlFromPath(pathString);
-            String selfDomain = getDomain(selfUrl);
-
-            // Initial value of 1 for page rank
-            selfUrlAndRank.set(selfUrl.concat("|1"));
-
-            HashSet<String> seenUrls = new HashSet<String>();
-            for (Element link : links) {
-                String url = link.attr("href");
-                if (!isValidRef(url))
-                    continue;
-
-                url = normalizeUrl(selfDomain, url);
-                if (!seenUrls.contains(url)) {
-                    seenUrls.add(url);
-                    outLink.set(url);
-                    context.write(selfUrlAndRank, outLink);
+            long start = System.nanoTime();
+            hrefs.clear();
+            Charset charset = EXTRACTOR_JSOUP.equals(mode) ? null : CrawlPages.charsetOf(value);
+            if (EXTRACTOR_JSOUP.equals(mode)) {
+                LinkExtractor.extractWithJsoup(CrawlPages.parse(value), hrefs);
+            } else if (!scannable.computeIfAbsent(charset, LinkExtractor::canScan)) {
+                // UTF-16 or a multibyte charset, only Jsoup decodes it
+                context.getCounter(Counters.CHARSET_FALLBACKS).increment(1);
+                LinkExtractor.extractWithJsoup(CrawlPages.parse(value), hrefs);
+            } else if (extractor.extract(value.getBytes(), value.getLength(), charset, hrefs)) {
+                context.getCounter(Counters.PAGES_STREAMED).increment(1);
+
+                if (EXTRACTOR_COMPARE.equals(mode)) {
+                    jsoupHrefs.clear();
+                    LinkExtractor.extractWithJsoup(CrawlPages.parse(value), jsoupHrefs);
+
+                    if (hrefs.equals(jsoupHrefs)) {
+                        context.getCounter(Counters.COMPARED_MATCHES).increment(1);
+                    } else {
+                        context.getCounter(Counters.COMPARED_MISMATCHES).increment(1);
+                        if (mismatches++ < LOGGED_MISMATCHES)
+                            LOG.debug("Link extractors differ on: {}", key);
+                    }
                 }
+            } else {
+                // Malformed page, let Jsoup deal with it
+                context.getCounter(Counters.JSOUP_FALLBACKS).increment(1);
+                hrefs.clear();
+                LinkExtractor.extractWithJsoup(CrawlPages.parse(value), hrefs);
+            }
+
+            long extracted = System.nanoTime();
+            extractNanos += extracted - start;
+
+            String selfUrl = CrawlUrls.urlFromPath(key.toString());
+            selfUrlText.set(selfUrl);
+
+            outLinks.clear();
+            int valid = collectOutLinks(resolver, selfUrl, hrefs, outLinks);
+            normalizeNanos += System.nanoTime() - extracted;
+
+            hrefCount += hrefs.size();
+            invalidHrefs += hrefs.size() - valid;
+            duplicateHrefs += valid - outLinks.size();
+            outLinkCount += outLinks.size();
+            outDegrees.merge(outDegreeBucket(outLinks.size()), 1L, Long::sum);
+
+            for (String url : outLinks) {
+                outLink.set(url);
+                context.write(selfUrlText, outLink);
             }
         }
+
+        @Override
+        protected void cleanup(Context context) {
+            context.getCounter(Counters.HREFS).increment(hrefCount);
+            context.getCounter(Counters.HREFS_INVALID).increment(invalidHrefs);
+            context.getCounter(Counters.HREFS_DUPLICATE).increment(duplicateHrefs);
+            context.getCounter(Counters.OUT_LINKS).increment(outLinkCount);
+            context.getCounter(Counters.EXTRACT_MILLIS).increment(extractNanos / 1000000);
+            context.getCounter(Counters.NORMALIZE_MILLIS).increment(normalizeNanos / 1000000);
+            context.getCounter(Counters.URL_CACHE_HITS).increment(resolver.getHits());
+            context.getCounter(Counters.URL_CACHE_MISSES).increment(resolver.getMisses());
+
+            for (Map.Entry<String, Long> bucket : outDegrees.entrySet())
+                context.getCounter(OUT_DEGREE_GROUP, bucket.getKey()).increment(bucket.getValue());
+        }
     }
 
-    public static class OutLinksReducer extends Reducer<Text, Text, Text, Text> {
-        private Text outLinks = new Text();
+    public static class OutLinksReducer extends Reducer<Text, Text, Text, TextArrayWritable> {
+        private ArrayList<Text> outLinks = new ArrayList<Text>();
+        private TextArrayWritable outLinksArray = new TextArrayWritable();
 
         public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-            StringBuilder stringBuilder = new StringBuilder();
-
-            for (Text outLink : values) {
-                stringBuilder.append(outLink.toString());
-                stringBuilder.append('|');
-            }
+            outLinks.clear();
+            for (Text outLink : values)
+                outLinks.add(new Text(outLink));
 
-            outLinks.set(stringBuilder.substring(0, stringBuilder.length() - 1));
-            context.write(key, outLinks);
+            outLinksArray.set(outLinks.toArray(new Text[outLinks.size()]));
+            context.write(key, outLinksArray);
         }
     }
 
-    public static void main(String[] args) throws Exception {
-        Configuration conf = new Configuration();
+    public static Job createJob(Configuration conf, Path inputPath, Path outputPath) throws IOException {
         Job job = Job.getInstance(conf, "init-page-rank");
 
         job.setJarByClass(InitPageRank.class);
         job.setMapperClass(OutLinkMapper.class);
         job.setReducerClass(OutLinksReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
-        job.setInputFormatClass(WholeFileInputFormat.class);
-        FileInputFormat.addInputPath(job, new Path(args[0]));
+        job.setOutputValueClass(TextArrayWritable.class);
+        if (conf.getBoolean(CombineWholeFileInputFormat.COMBINE_INPUT, true))
+            job.setInputFormatClass(CombineWholeFileInputFormat.class);
+        else
+            job.setInputFormatClass(WholeFileInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileInputFormat.addInputPath(job, inputPath);
         FileInputFormat.setInputDirRecursive(job, true);
-        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+        FileOutputFormat.setOutputPath(job, outputPath);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        Job job = createJob(conf, new Path(args[0]), new Path(args[1]));
         System.exit(job.waitForCompletion(true) ? 0 : 1);
     }
 }
@@ -0,0 +1,443 @@
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+
+/**
+ * Pulls the href of every anchor straight out of the raw bytes of a page
+ * (UTF-8 or any charset canScan accepts), without building a DOM. It follows the parts of the HTML tokenizer
+ * that matter for anchors (quoted attributes, comments, raw text elements
+ * like script and style) and gives up on anything it can't handle, in which
+ * case callers fall back to Jsoup.
+ */
+public class LinkExtractor {
+    // Content of these elements is never parsed as tags
+    private static final byte[][] RAW_TEXT_TAGS = {
+        ascii("script"), ascii("style"), ascii("textarea"), ascii("title"),
+        ascii("xmp"), ascii("iframe"), ascii("noembed"), ascii("noframes"),
+    };
+    private static final byte[] PLAINTEXT_TAG = ascii("plaintext");
+    private static final byte[] HREF = ascii("href");
+    // Printable ascii and whitespace, what markup is made of
+    private static final byte[] MARKUP_BYTES = new byte[0x7f - 0x09];
+    static {
+        for (int i = 0; i < MARKUP_BYTES.length; ++i)
+            MARKUP_BYTES[i] = (byte) (0x09 + i);
+    }
+
+    private byte[] bytes;
+    private int length;
+    private int pos;
+    // Of the attribute values
+    private Charset charset;
+
+    // Reused to decode attribute values with entities
+    private StringBuilder decoded = new StringBuilder();
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Whether pages in charset can be scanned: UTF-8 and single byte
+     * charsets that keep ascii as is (ISO-8859-*, windows-125*, ...), not
+     * UTF-16 nor other multibyte charsets, whose bytes may look like markup.
+     */
+    public static boolean canScan(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII))
+            return true;
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1)
+            return false;
+
+        return new String(MARKUP_BYTES, charset).equals(new String(MARKUP_BYTES, StandardCharsets.US_ASCII));
+    }
+
+    public boolean extract(byte[] bytes, int length, List<String> hrefs) {
+        return extract(bytes, length, StandardCharsets.UTF_8, hrefs);
+    }
+
+    /**
+     * Adds the href of every anchor to hrefs (an empty string for anchors
+     * without one, like Jsoup), decoded with charset, which canScan must
+     * accept. Returns false if the page couldn't be scanned, hrefs is left
+     * in an undefined state then.
+     */
+    public boolean extract(byte[] bytes, int length, Charset charset, List<String> hrefs) {
+        this.bytes = bytes;
+        this.length = length;
+        this.pos = 0;
+        this.charset = charset;
+
+        while (pos < length) {
+            if (bytes[pos] != '<') {
+                pos++;
+                continue;
+            }
+
+            if (pos + 1 >= length)
+                return true;
+
+            byte next = bytes[pos + 1];
+            if (isAsciiLetter(next)) {
+                if (!startTag(hrefs))
+                    return false;
+            } else if (next == '/') {
+                pos += 2;
+                if (pos < length && isAsciiLetter(bytes[pos])) {
+                    skipTagName();
+                    if (!attributes(false, hrefs))
+                        return false;
+                } else if (!skipPast((byte) '>')) {
+                    return false;
+                }
+            } else if (next == '!') {
+                if (!markupDeclaration())
+                    return false;
+            } else if (next == '?') {
+                pos += 2;
+                if (!skipPast((byte) '>'))
+                    return false;
+            } else {
+                pos++;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean startTag(List<String> hrefs) {
+        int nameStart = ++pos;
+        skipTagName();
+        int nameEnd = pos;
+
+        boolean anchor = nameEnd - nameStart == 1 && (bytes[nameStart] | 0x20) == 'a';
+        int hrefsBefore = hrefs.size();
+        if (!attributes(anchor, hrefs))
+            return false;
+
+        if (anchor && hrefs.size() == hrefsBefore)
+            hrefs.add("");
+
+        if (equalsIgnoreCase(nameStart, nameEnd, PLAINTEXT_TAG))
+            return false;
+
+        for (byte[] rawTag : RAW_TEXT_TAGS) {
+            if (equalsIgnoreCase(nameStart, nameEnd, rawTag))
+                return skipRawText(rawTag);
+        }
+
+        return true;
+    }
+
+    private void skipTagName() {
+        while (pos < length && !isTagNameEnd(bytes[pos]))
+            pos++;
+    }
+
+    /**
+     * Parses attributes up to the end of the tag, adding the first href to
+     * hrefs when collect is set.
+     */
+    private boolean attributes(boolean collect, List<String> hrefs) {
+        boolean foundHref = false;
+
+        while (true) {
+            while (pos < length && (isWhitespace(bytes[pos]) || bytes[pos] == '/'))
+                pos++;
+
+            if (pos >= length)
+                return false;
+
+            if (bytes[pos] == '>') {
+                pos++;
+                return true;
+            }
+
+            // The first character of a name can be '=', any other ends it
+            int nameStart = pos++;
+            while (pos < length && !isWhitespace(bytes[pos]) && bytes[pos] != '/' && bytes[pos] != '>' && bytes[pos] != '=')
+                pos++;
+            int nameEnd = pos;
+
+            while (pos < length && isWhitespace(bytes[pos]))
+                pos++;
+
+            if (pos >= length)
+                return false;
+
+            int valueStart = pos;
+            int valueEnd = pos;
+            if (bytes[pos] == '=') {
+                pos++;
+                while (pos < length && isWhitespace(bytes[pos]))
+                    pos++;
+
+                if (pos >= length)
+                    return false;
+
+                byte quote = bytes[pos];
+                if (quote == '"' || quote == '\'') {
+                    valueStart = ++pos;
+                    while (pos < length && bytes[pos] != quote)
+                        pos++;
+
+                    if (pos >= length)
+                        return false;
+
+                    valueEnd = pos++;
+                } else {
+                    valueStart = pos;
+                    while (pos < length && !isWhitespace(bytes[pos]) && bytes[pos] != '>')
+                        pos++;
+
+                    valueEnd = pos;
+                }
+            }
+
+            if (collect && !foundHref && equalsIgnoreCase(nameStart, nameEnd, HREF)) {
+                String href = decodeValue(valueStart, valueEnd);
+                if (href == null)
+                    return false;
+
+                hrefs.add(href);
+                foundHref = true;
+            }
+        }
+    }
+
+    private boolean markupDeclaration() {
+        if (pos + 3 < length && bytes[pos + 2] == '-' && bytes[pos + 3] == '-') {
+            pos += 4;
+            while (pos + 2 < length) {
+                if (bytes[pos] == '-' && bytes[pos + 1] == '-' && bytes[pos + 2] == '>') {
+                    pos += 3;
+                    return true;
+                }
+                pos++;
+            }
+
+            return false;
+        }
+
+        // Doctype, CDATA and other bogus comments end at the first '>'
+        pos += 2;
+        return skipPast((byte) '>');
+    }
+
+    private boolean skipRawText(byte[] tag) {
+        while (pos + 1 + tag.length < length) {
+            if (bytes[pos] == '<' && bytes[pos + 1] == '/'
+                    && equalsIgnoreCase(pos + 2, pos + 2 + tag.length, tag)
+                    && isTagNameEnd(bytes[pos + 2 + tag.length])) {
+                pos += 2 + tag.length;
+                return attributes(false, null);
+            }
+            pos++;
+        }
+
+        // Unclosed raw text runs up to the end of the page
+        pos = length;
+        return true;
+    }
+
+    private boolean skipPast(byte end) {
+        while (pos < length) {
+            if (bytes[pos++] == end)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Decodes the character references of an attribute value the way the
+     * tokenizer of Jsoup does: unknown or malformed ones, and named ones
+     * without a ';' followed by '=' or an alphanumeric (like `?a=1&b=2`),
+     * are literal text. Returns null for the few numeric ones remapped from
+     * windows-1252, which are left to Jsoup.
+     */
+    private String decodeValue(int start, int end) {
+        int amp = start;
+        while (amp < end && bytes[amp] != '&')
+            amp++;
+
+        String value = new String(bytes, start, end - start, charset);
+        if (amp == end)
+            return value;
+
+        decoded.setLength(0);
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i++);
+            if (c != '&') {
+                decoded.append(c);
+                continue;
+            }
+
+            int next = i < value.length() && value.charAt(i) == '#' ? numericReference(value, i + 1) : namedReference(value, i);
+            if (next == -2)
+                return null;
+            if (next == -1)
+                decoded.append('&');
+            else
+                i = next;
+        }
+
+        return decoded.toString();
+    }
+
+    /**
+     * Appends the reference whose digits start at i, returns the index past
+     * it, -1 when there's no reference there or -2 when it's remapped.
+     */
+    private int numericReference(String value, int i) {
+        boolean hex = i < value.length() && (value.charAt(i) == 'x' || value.charAt(i) == 'X');
+        int digitsStart = hex ? i + 1 : i;
+        int digitsEnd = digitsStart;
+        while (digitsEnd < value.length() && Character.digit(value.charAt(digitsEnd), hex ? 16 : 10) != -1
+                && value.charAt(digitsEnd) < 0x80)
+            digitsEnd++;
+
+        if (digitsEnd == digitsStart)
+            return -1;
+
+        int codePoint;
+        try {
+            codePoint = Integer.parseInt(value.substring(digitsStart, digitsEnd), hex ? 16 : 10);
+        } catch (NumberFormatException e) {
+            codePoint = -1;
+        }
+
+        if (codePoint == -1 || (codePoint >= 0xd800 && codePoint <= 0xdfff) || codePoint > 0x10ffff)
+            codePoint = 0xfffd;
+        else if (codePoint >= 0x80 && codePoint < 0xa0)
+            return -2;
+
+        decoded.appendCodePoint(codePoint);
+        return digitsEnd < value.length() && value.charAt(digitsEnd) == ';' ? digitsEnd + 1 : digitsEnd;
+    }
+
+    /**
+     * Appends the reference whose name starts at i, returns the index past
+     * it or -1 when there's no reference there.
+     */
+    private int namedReference(String value, int i) {
+        int nameEnd = i;
+        while (nameEnd < value.length() && Character.isLetter(value.charAt(nameEnd)))
+            nameEnd++;
+        while (nameEnd < value.length() && value.charAt(nameEnd) >= '0' && value.charAt(nameEnd) <= '9')
+            nameEnd++;
+
+        String name = value.substring(i, nameEnd);
+        boolean terminated = nameEnd < value.length() && value.charAt(nameEnd) == ';';
+        if (!Entities.isBaseNamedEntity(name) && !(terminated && Entities.isNamedEntity(name)))
+            return -1;
+
+        if (!terminated && nameEnd < value.length()) {
+            char after = value.charAt(nameEnd);
+            if (Character.isLetter(after) || (after >= '0' && after <= '9') || after == '=' || after == '-' || after == '_')
+                return -1;
+        }
+
+        decoded.append(Entities.getByName(name));
+        return terminated ? nameEnd + 1 : nameEnd;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, byte[] lowerCase) {
+        if (end - start != lowerCase.length || end > length)
+            return false;
+
+        for (int i = 0; i < lowerCase.length; ++i) {
+            if ((bytes[start + i] | 0x20) != lowerCase[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean isAsciiLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    private static boolean isTagNameEnd(byte b) {
+        return isWhitespace(b) || b == '/' || b == '>';
+    }
+
+    /**
+     * The reference path: href of every anchor in the body of the DOM built
+     * by Jsoup.
+     */
+    public static void extractWithJsoup(String html, List<String> hrefs) {
+        extractWithJsoup(Jsoup.parse(html), hrefs);
+    }
+
+    public static void extractWithJsoup(Document doc, List<String> hrefs) {
+        for (Element link : doc.body().getElementsByTag("a"))
+            hrefs.add(link.attr("href"));
+    }
+
+    /**
+     * Compares both extractors over every file of a local directory.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: ... <html-dir>");
+            return;
+        }
+
+        List<File> files = new ArrayList<File>();
+        listFiles(new File(args[0]), files);
+
+        LinkExtractor extractor = new LinkExtractor();
+        List<String> streamed = new ArrayList<String>();
+        List<String> parsed = new ArrayList<String>();
+        long matched = 0, mismatched = 0, fallbacks = 0;
+
+        for (File file : files) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+
+            streamed.clear();
+            parsed.clear();
+            Charset charset = CrawlPages.charsetOf(bytes, bytes.length);
+            extractWithJsoup(new String(bytes, charset), parsed);
+
+            if (!canScan(charset) || !extractor.extract(bytes, bytes.length, charset, streamed)) {
+                fallbacks++;
+            } else if (streamed.equals(parsed)) {
+                matched++;
+            } else {
+                mismatched++;
+                System.out.println("Mismatch: " + file);
+                System.out.println("  streaming: " + streamed);
+                System.out.println("  jsoup:     " + parsed);
+            }
+        }
+
+        System.out.printf("Pages: %d, matched: %d, mismatched: %d, jsoup fallbacks: %d%n",
+                files.size(), matched, mismatched, fallbacks);
+    }
+
+    private static void listFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        for (File child : children) {
+            if (child.isDirectory())
+                listFiles(child, files);
+            else
+                files.add(child);
+        }
+    }
+}
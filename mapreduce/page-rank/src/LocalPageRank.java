@@ -0,0 +1,372 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Page rank on a single node, for graphs that fit in memory. Loads the id
+ * graph and the url dictionary into compressed sparse row arrays (in-links
+ * per node) and runs the power iteration on a fork-join pool, with the same
+ * damping, dangling mass and convergence semantics as CalcPageRank.
+ */
+public class LocalPageRank {
+    public static final String THREADS = "pagerank.local.threads";
+
+    // Ranges smaller than this are not split any further
+    private static final int MIN_TASK_SIZE = 4096;
+
+    private final int nodeCount;
+    private final String[] urls;
+    private final int[] outDegrees;
+    private final int[] inOffsets;
+    private final int[] inLinks;
+
+    private double[] ranks;
+    private double[] nextRanks;
+    private final double[] contributions;
+
+    // Nodes that were never seen in the graph yet (uncrawled link targets)
+    private final boolean[] present;
+
+    private final ForkJoinPool pool;
+
+    private double danglingMass = 0;
+    private double lastDeltaL1 = 0;
+    private double lastDeltaMax = 0;
+
+    public LocalPageRank(Configuration conf, Path dictionaryOutputPath, Path graphPath) throws IOException {
+        long[] offsets = BuildUrlDictionary.readOffsets(conf, dictionaryOutputPath);
+        nodeCount = (int) offsets[offsets.length - 1];
+
+        urls = new String[nodeCount];
+        outDegrees = new int[nodeCount];
+        inOffsets = new int[nodeCount + 1];
+        ranks = new double[nodeCount];
+        nextRanks = new double[nodeCount];
+        contributions = new double[nodeCount];
+        present = new boolean[nodeCount];
+
+        loadUrls(conf, BuildUrlDictionary.dictionaryPath(dictionaryOutputPath), offsets);
+
+        // First pass counts the in-links of every node, second one fills them
+        IntWritable id = new IntWritable();
+        PageRankNode node = new PageRankNode();
+        for (Path part : listParts(conf, graphPath)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part));
+            try {
+                while (reader.next(id, node)) {
+                    int src = id.get();
+                    outDegrees[src] = node.getOutDegree();
+                    ranks[src] = node.getRank();
+                    present[src] = true;
+
+                    for (int i = 0; i < node.getOutDegree(); ++i)
+                        inOffsets[node.getOutLink(i) + 1] += 1;
+                }
+            } finally {
+                IOUtils.closeStream(reader);
+            }
+        }
+
+        for (int i = 0; i < nodeCount; ++i)
+            inOffsets[i + 1] += inOffsets[i];
+
+        inLinks = new int[inOffsets[nodeCount]];
+        int[] cursors = new int[nodeCount];
+        System.arraycopy(inOffsets, 0, cursors, 0, nodeCount);
+
+        for (Path part : listParts(conf, graphPath)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part));
+            try {
+                while (reader.next(id, node)) {
+                    for (int i = 0; i < node.getOutDegree(); ++i)
+                        inLinks[cursors[node.getOutLink(i)]++] = id.get();
+                }
+            } finally {
+                IOUtils.closeStream(reader);
+            }
+        }
+
+        int threads = conf.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        pool = new ForkJoinPool(threads);
+    }
+
+    private void loadUrls(Configuration conf, Path dictionaryPath, long[] offsets) throws IOException {
+        Text url = new Text();
+        LongWritable pendingId = new LongWritable();
+
+        for (Path part : listParts(conf, dictionaryPath)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(part));
+            try {
+                while (reader.next(url, pendingId))
+                    urls[BuildUrlDictionary.resolveId(pendingId.get(), offsets)] = url.toString();
+            } finally {
+                IOUtils.closeStream(reader);
+            }
+        }
+    }
+
+    private static Path[] listParts(Configuration conf, Path dirPath) throws IOException {
+        FileSystem fs = dirPath.getFileSystem(conf);
+        FileStatus[] statuses = fs.listStatus(dirPath, path -> path.getName().startsWith("part-"));
+
+        Path[] parts = new Path[statuses.length];
+        for (int i = 0; i < statuses.length; ++i)
+            parts[i] = statuses[i].getPath();
+
+        return parts;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getEdgeCount() {
+        return inLinks.length;
+    }
+
+    public double getDeltaL1() {
+        return lastDeltaL1;
+    }
+
+    public double getDeltaMax() {
+        return lastDeltaMax;
+    }
+
+    public double getDanglingMass() {
+        return danglingMass;
+    }
+
+    /**
+     * Splits [from, to) in halves until small enough, results of the halves
+     * are merged with merge().
+     */
+    private abstract class RangeTask extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+
+        protected final int from;
+        protected final int to;
+
+        RangeTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected abstract RangeTask split(int from, int to);
+
+        protected abstract double[] computeRange();
+
+        protected abstract double[] merge(double[] left, double[] right);
+
+        @Override
+        protected double[] compute() {
+            if (to - from <= MIN_TASK_SIZE)
+                return computeRange();
+
+            int middle = (from + to) >>> 1;
+            RangeTask left = split(from, middle);
+            RangeTask right = split(middle, to);
+            left.fork();
+
+            double[] rightResult = right.compute();
+            return merge(left.join(), rightResult);
+        }
+    }
+
+    // Mass sent along every out-link, { dangling mass } as result
+    private class ContributionTask extends RangeTask {
+        private static final long serialVersionUID = 1L;
+
+        ContributionTask(int from, int to) {
+            super(from, to);
+        }
+
+        @Override
+        protected RangeTask split(int from, int to) {
+            return new ContributionTask(from, to);
+        }
+
+        @Override
+        protected double[] computeRange() {
+            double dangling = 0;
+            for (int v = from; v < to; ++v) {
+                if (outDegrees[v] == 0) {
+                    contributions[v] = 0;
+                    dangling += ranks[v];
+                } else {
+                    contributions[v] = ranks[v] / (double) outDegrees[v];
+                }
+            }
+
+            return new double[] { dangling };
+        }
+
+        @Override
+        protected double[] merge(double[] left, double[] right) {
+            return new double[] { left[0] + right[0] };
+        }
+    }
+
+    // New rank of every node, { l1 delta, max delta } as result
+    private class RankTask extends RangeTask {
+        private static final long serialVersionUID = 1L;
+
+        private final double danglingShare;
+
+        RankTask(int from, int to, double danglingShare) {
+            super(from, to);
+            this.danglingShare = danglingShare;
+        }
+
+        @Override
+        protected RangeTask split(int from, int to) {
+            return new RankTask(from, to, danglingShare);
+        }
+
+        @Override
+        protected double[] computeRange() {
+            double deltaL1 = 0;
+            double deltaMax = 0;
+
+            for (int v = from; v < to; ++v) {
+                double accPageRank = danglingShare;
+                for (int i = inOffsets[v]; i < inOffsets[v + 1]; ++i)
+                    accPageRank += contributions[inLinks[i]];
+
+                accPageRank = 1 - CalcPageRank.DAMPING_FACTOR + (CalcPageRank.DAMPING_FACTOR * accPageRank);
+                nextRanks[v] = accPageRank;
+
+                double delta = Math.abs(accPageRank - ranks[v]);
+                deltaL1 += delta;
+                deltaMax = Math.max(deltaMax, delta);
+            }
+
+            return new double[] { deltaL1, deltaMax };
+        }
+
+        @Override
+        protected double[] merge(double[] left, double[] right) {
+            return new double[] { left[0] + right[0], Math.max(left[1], right[1]) };
+        }
+    }
+
+    /**
+     * Runs a single iteration. Like the map reduce job, the first one only
+     * spreads the dangling mass of the link targets seeded by a warm start,
+     * every crawled page has out-links and other targets have no rank yet.
+     */
+    public void iterate() {
+        danglingMass = pool.invoke(new ContributionTask(0, nodeCount))[0];
+
+        double[] deltas = pool.invoke(new RankTask(0, nodeCount, danglingMass / nodeCount));
+        lastDeltaL1 = deltas[0] / nodeCount;
+        lastDeltaMax = deltas[1];
+
+        double[] swap = ranks;
+        ranks = nextRanks;
+        nextRanks = swap;
+
+        // Every node has a rank after the first iteration
+        Arrays.fill(present, true);
+    }
+
+    /**
+     * Runs up to maxIterations iterations, stopping earlier if the delta goes
+     * below epsilon (disabled when epsilon is negative). Returns the number of
+     * iterations done. Every iteration is added to report.
+     */
+    public int run(int maxIterations, double epsilon, boolean useL1, RunReport report) {
+        for (int it = 0; it < maxIterations; ++it) {
+            long start = System.nanoTime();
+            iterate();
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            System.out.printf("Iteration %d: l1 delta = %g, linf delta = %g, dangling mass = %g%n",
+                    it + 1, lastDeltaL1, lastDeltaMax, danglingMass);
+
+            Map<String, Object> entry = report.addIteration(it + 1);
+            entry.put("millis", millis);
+            entry.put("nodes", nodeCount);
+            entry.put("deltaL1", lastDeltaL1);
+            entry.put("deltaMax", lastDeltaMax);
+            entry.put("danglingMass", danglingMass);
+
+            if (epsilon >= 0 && (useL1 ? lastDeltaL1 : lastDeltaMax) < epsilon) {
+                System.out.printf("Converged after %d iterations%n", it + 1);
+                return it + 1;
+            }
+        }
+
+        return maxIterations;
+    }
+
+    /**
+     * Writes the `url|rank` text layout, as a single part file.
+     */
+    public void write(Configuration conf, Path outputPath) throws IOException {
+        FileSystem fs = outputPath.getFileSystem(conf);
+        if (fs.exists(outputPath))
+            throw new IOException("Output directory " + outputPath + " already exists");
+
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                fs.create(new Path(outputPath, "part-r-00000")), StandardCharsets.UTF_8));
+        try {
+            for (int v = 0; v < nodeCount; ++v) {
+                if (!present[v])
+                    continue;
+
+                writer.write(urls[v]);
+                writer.write('|');
+                writer.write(String.valueOf(ranks[v]));
+                writer.write('\n');
+            }
+        } finally {
+            IOUtils.closeStream(writer);
+        }
+
+        fs.create(new Path(outputPath, "_SUCCESS")).close();
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 4) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... [-D run.report.dir=<report-dir>] <dictionary-dir> <graph-dir> <output-dir> <no-iterations>");
+            return;
+        }
+
+        RunReport report = new RunReport("local-page-rank");
+        boolean success = false;
+        LocalPageRank pageRank = new LocalPageRank(conf, new Path(args[0]), new Path(args[1]));
+        try {
+            pageRank.run(Integer.parseUnsignedInt(args[3]), conf.getDouble(PageRank.EPSILON, -1),
+                    !PageRank.NORM_LINF.equals(conf.get(PageRank.NORM, PageRank.NORM_L1)), report);
+            pageRank.write(conf, new Path(args[2]));
+            success = true;
+        } finally {
+            pageRank.close();
+            report.write(conf, success);
+        }
+    }
+}
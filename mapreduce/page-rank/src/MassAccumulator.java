@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Sums the rank mass sent to every node by a map task (in-mapper aggregation
+ * of CalcPageRank). Node ids are looked up through an open addressing table
+ * and the masses of a slot are width consecutive doubles of a single array,
+ * so like TermCounter nothing is boxed or allocated per out-link.
+ */
+public class MassAccumulator {
+    // Node ids are never negative
+    private static final int EMPTY = -1;
+
+    private final int width;
+
+    // Per slot of the table, ids[slot] == EMPTY marks an empty slot
+    private int[] ids = new int[1024];
+    private double[] masses;
+
+    // Slots in insertion order
+    private int[] order = new int[1024];
+    private int size = 0;
+
+    public MassAccumulator(int width) {
+        this.width = width;
+        masses = new double[ids.length * width];
+        Arrays.fill(ids, EMPTY);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; ++i)
+            ids[order[i]] = EMPTY;
+
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the first width doubles of mass to the sum of node id.
+     */
+    public void add(int id, double[] mass) {
+        int mask = ids.length - 1;
+
+        int slot = hash(id) & mask;
+        while (ids[slot] != EMPTY) {
+            if (ids[slot] == id) {
+                int offset = slot * width;
+                for (int k = 0; k < width; ++k)
+                    masses[offset + k] += mass[k];
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        ids[slot] = id;
+        System.arraycopy(mass, 0, masses, slot * width, width);
+
+        order[size++] = slot;
+        if (size * 2 > ids.length)
+            rehash();
+    }
+
+    /**
+     * Copies the sum of the i-th node (in insertion order) to mass and returns its id.
+     */
+    public int get(int i, double[] mass) {
+        int slot = order[i];
+        System.arraycopy(masses, slot * width, mass, 0, width);
+        return ids[slot];
+    }
+
+    private static int hash(int id) {
+        int hash = id * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void rehash() {
+        int capacity = ids.length * 2;
+        int[] oldIds = ids;
+        double[] oldMasses = masses;
+
+        ids = new int[capacity];
+        masses = new double[capacity * width];
+        Arrays.fill(ids, EMPTY);
+
+        int[] newOrder = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; ++i) {
+            int oldSlot = order[i];
+            int slot = hash(oldIds[oldSlot]) & mask;
+            while (ids[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+
+            ids[slot] = oldIds[oldSlot];
+            System.arraycopy(oldMasses, oldSlot * width, masses, slot * width, width);
+            newOrder[i] = slot;
+        }
+
+        order = newOrder;
+    }
+}
@@ -1,60 +1,225 @@
+import java.io.IOException;
+import java.util.Map;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 public class PageRank {
     private static final long MAX_SPLIT_SIZE = 128 * 1024 * 1024;
 
+    // When set, iterations stop as soon as the rank delta drops below it and
+    // <no-iterations> becomes the max number of iterations
+    public static final String EPSILON = "pagerank.convergence.epsilon";
+    // Norm compared against the epsilon: "l1" (over ranks normalized to sum 1) or "linf"
+    public static final String NORM = "pagerank.convergence.norm";
+    public static final String NORM_L1 = "l1";
+    public static final String NORM_LINF = "linf";
+
+    // Link graph already extracted from the crawl (e.g. the links output of CrawlIngest),
+    // InitPageRank is skipped when set
+    public static final String INIT_LINKS = "pagerank.init.links";
+
+    // Graphs with at most this many edges are ranked in memory by LocalPageRank, -1 disables it
+    public static final String LOCAL_MAX_EDGES = "pagerank.local.max-edges";
+    public static final long DEFAULT_LOCAL_MAX_EDGES = 10000000;
+
+    /**
+     * Max rank delta of a finished CalcPageRank job, from the side files of its reducers.
+     */
+    public static double maxDelta(Configuration conf, Job calcJob, Path outputPath) throws IOException {
+        double max = 0;
+        for (double[] values : TaskSideFiles.readDoubles(conf, outputPath, CalcPageRank.MAX_DELTA_FILE, calcJob.getNumReduceTasks())) {
+            for (double value : values)
+                max = Math.max(max, value);
+        }
+
+        return max;
+    }
+
     public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
         if (args.length != 4) {
             System.out.println("Error: invalid number of arguments");
-            System.out.println("Usage: ... <input-dir> <temp-dir> <output-dir> <no-iterations>");
+            System.out.println("Usage: ... [-D pagerank.calc.aggregation=none|combiner|in-mapper] [-D pagerank.calc.schimmy=true]");
+            System.out.println("           [-D pagerank.convergence.epsilon=<epsilon>] [-D pagerank.convergence.norm=l1|linf]");
+            System.out.println("           [-D pagerank.local.max-edges=<edges>] [-D pagerank.local.threads=<threads>]");
+            System.out.println("           [-D pagerank.init.links=<links-dir>]");
+            System.out.println("           [-D pagerank.personalized.vectors=<name>,...] [-D pagerank.personalized.teleport.<name>=<url-prefix>,...|*]");
+            System.out.println("           [-D pagerank.warm.previous=<page-rank-output-dir>] [-D pagerank.calc.delta.tolerance=<tolerance>]");
+            System.out.println("           [-D run.report.dir=<report-dir>]");
+            System.out.println("           <input-dir> <temp-dir> <output-dir> <no-iterations>");
             return;
         }
 
-        Configuration conf = new Configuration();
+        run(conf, new Path(args[0]), new Path(args[1]), new Path(args[2]), Integer.parseUnsignedInt(args[3]));
+    }
+
+    /**
+     * Ranks the crawl at inputPath, writing the `url|rank` layout to outputPath
+     * (or to a directory of it per personalized vector, see RankVectors).
+     * Stops at the first failed job, the run report is written either way.
+     */
+    public static void run(Configuration conf, Path inputPath, Path tempPath, Path outputPath, int noIterations) throws Exception {
+        RunReport report = new RunReport("page-rank");
+        boolean success = false;
+        try {
+            run(conf, inputPath, tempPath, outputPath, noIterations, report);
+            success = true;
+        } finally {
+            report.write(conf, success);
+        }
+    }
+
+    private static void run(Configuration conf, Path inputPath, Path tempPath, Path outputPath, int noIterations,
+            RunReport report) throws Exception {
+        conf = new Configuration(conf);
         conf.setLong(FileInputFormat.SPLIT_MAXSIZE, MAX_SPLIT_SIZE);
 
-        Path inputPath = new Path(args[0]);
-        Path tempPath = new Path(args[1]);
-        Path outputPath = new Path(args[2]);
+        double epsilon = conf.getDouble(EPSILON, -1);
+        boolean useL1 = !NORM_LINF.equals(conf.get(NORM, NORM_L1));
 
-        int noIterations = Integer.parseUnsignedInt(args[3]);
+        // Personalized vectors are all ranked by the same CalcPageRank iterations, which only
+        // start from the initial ranks and always recompute them
+        RankVectors vectors = RankVectors.get(conf);
+        if (vectors != null && (conf.get(BuildIdGraph.PREVIOUS_RANKS) != null || conf.getDouble(CalcPageRank.DELTA_TOLERANCE, -1) >= 0))
+            throw new IllegalArgumentException("Personalized vectors can't be combined with warm starts nor delta mode");
 
         // Initial job to get outlinks (init page rank)
-        Job initJob = Job.getInstance(conf, "init-page-rank");
-        initJob.setJarByClass(InitPageRank.class);
-        initJob.setMapperClass(InitPageRank.OutLinkMapper.class);
-        initJob.setReducerClass(InitPageRank.OutLinksReducer.class);
-        initJob.setOutputKeyClass(Text.class);
-        initJob.setOutputValueClass(Text.class);
-        initJob.setInputFormatClass(WholeFileInputFormat.class);
-        FileInputFormat.addInputPath(initJob, inputPath);
-        FileInputFormat.setInputDirRecursive(initJob, true);
-        FileOutputFormat.setOutputPath(initJob, tempPath);
-        initJob.waitForCompletion(true);
+        Path linksPath;
+        if (conf.get(INIT_LINKS) != null) {
+            linksPath = new Path(conf.get(INIT_LINKS));
+        } else {
+            linksPath = new Path(tempPath, "links");
+            Job initJob = InitPageRank.createJob(conf, inputPath, linksPath);
+            JobRuns.waitForSuccess(initJob);
+        }
+
+        // Dense int ids for every url, iterations only ever see ids
+        Path dictionaryPath = new Path(tempPath, "dictionary");
+        long[] offsets = BuildUrlDictionary.run(conf, linksPath, dictionaryPath);
+
+        Path graphPath = new Path(tempPath, "graph-0");
+        Job graphJob = BuildIdGraph.createJob(conf, dictionaryPath, graphPath);
+        JobRuns.waitForSuccess(graphJob);
+
+        long edgeCount = graphJob.getCounters().findCounter(BuildIdGraph.Counters.EDGES).getValue();
+        if (vectors == null && edgeCount <= conf.getLong(LOCAL_MAX_EDGES, DEFAULT_LOCAL_MAX_EDGES)) {
+            System.out.printf("Graph has %d edges, ranking it in memory%n", edgeCount);
+
+            LocalPageRank localPageRank = new LocalPageRank(conf, dictionaryPath, graphPath);
+            try {
+                localPageRank.run(noIterations, epsilon, useL1, report);
+                localPageRank.write(conf, outputPath);
+            } finally {
+                localPageRank.close();
+            }
+            return;
+        }
+
+        // Every crawled page has at least one out-link, so the only dangling mass is the one
+        // of the link targets seeded by a warm start. It's spread over every url of the
+        // dictionary, as LocalPageRank does, and so are the teleport weights of personalized
+        // vectors: all of them are nodes once the first iteration is done
+        long nodeCount = offsets[offsets.length - 1];
+        double danglingMass = CalcPageRank.fromCounter(
+                graphJob.getCounters().findCounter(BuildIdGraph.Counters.DANGLING_MASS_SCALED).getValue());
+
+        int width = vectors == null ? 1 : vectors.size();
+        double[] danglingMasses = new double[width];
+        double[] teleportSizes = new double[width];
+        if (vectors != null)
+            teleportSizes = RankVectors.sumSideFiles(conf, graphJob, graphPath, RankVectors.TELEPORT_SIZES_FILE, width);
+        for (int k = 0; vectors != null && k < width; ++k) {
+            if (teleportSizes[k] == 0 && !vectors.teleportsToAll(k))
+                throw new IllegalArgumentException("Teleport set of vector " + vectors.getName(k) + " has no crawled page");
+        }
+
+        // In delta mode the first iteration is a full one, it finds the changes to propagate
+        double tolerance = conf.getDouble(CalcPageRank.DELTA_TOLERANCE, -1);
+        double appliedDanglingShare = 0;
 
         // Subsequent job to calculate page rank values iteratively
         FileSystem fs = tempPath.getFileSystem(conf);
         for (int it = 0; it < noIterations; ++it) {
-            Job calcJob = Job.getInstance(conf, "calc-page-rank");
-            calcJob.setJarByClass(CalcPageRank.class);
-            calcJob.setMapperClass(CalcPageRank.MapOp.class);
-            calcJob.setReducerClass(CalcPageRank.ReduceOp.class);
-            calcJob.setOutputKeyClass(Text.class);
-            calcJob.setOutputValueClass(Text.class);
-            FileInputFormat.addInputPath(calcJob, tempPath);
-            FileOutputFormat.setOutputPath(calcJob, outputPath);
-            calcJob.waitForCompletion(true);
-
-            if (it != noIterations - 1) {
-                fs.delete(tempPath, true);
-                fs.rename(outputPath, tempPath);
+            Path nextGraphPath = new Path(tempPath, "graph-" + (it + 1));
+
+            Configuration calcConf = new Configuration(conf);
+            calcConf.setLong(CalcPageRank.NODE_COUNT, nodeCount);
+            boolean deltaInput = tolerance >= 0 && it != 0;
+            calcConf.setBoolean(CalcPageRank.DELTA_INPUT, deltaInput);
+            // Ranks already hold the dangling share of the previous job, and the node count changes
+            // after the first one
+            double danglingShare = nodeCount == 0 ? 0 : danglingMass / nodeCount;
+            calcConf.setDouble(CalcPageRank.DANGLING_MASS, deltaInput ? (danglingShare - appliedDanglingShare) * nodeCount : danglingMass);
+            appliedDanglingShare = danglingShare;
+            if (vectors != null) {
+                RankVectors.setDoubles(calcConf, CalcPageRank.DANGLING_MASSES, danglingMasses);
+                RankVectors.setDoubles(calcConf, CalcPageRank.TELEPORT_SIZES, teleportSizes);
+            }
+            // The initial graph isn't partitioned by id, the first iteration takes care of it
+            calcConf.setBoolean(CalcPageRank.SCHIMMY, conf.getBoolean(CalcPageRank.SCHIMMY, false) && it != 0);
+
+            Job calcJob = CalcPageRank.createJob(calcConf, graphPath, nextGraphPath);
+            long start = System.nanoTime();
+            JobRuns.waitForSuccess(calcJob);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            fs.delete(graphPath, true);
+            graphPath = nextGraphPath;
+
+            Counters counters = calcJob.getCounters();
+            nodeCount = counters.findCounter(CalcPageRank.Counters.NODES).getValue();
+            danglingMass = CalcPageRank.fromCounter(counters.findCounter(CalcPageRank.Counters.DANGLING_MASS_SCALED).getValue());
+
+            double deltaL1 = CalcPageRank.fromCounter(counters.findCounter(CalcPageRank.Counters.RANK_DELTA_L1_SCALED).getValue());
+            deltaL1 = nodeCount == 0 ? 0 : deltaL1 / nodeCount;
+            double deltaMax = maxDelta(conf, calcJob, graphPath);
+
+            // Every vector has to converge, the l1 delta is the one of the slowest
+            double[] vectorDeltaL1 = new double[width];
+            double[] vectorSums = vectors == null ? null
+                    : RankVectors.sumSideFiles(conf, calcJob, graphPath, RankVectors.VECTOR_SUMS_FILE, 2 * width);
+            for (int k = 0; vectors != null && k < width; ++k) {
+                danglingMasses[k] = vectorSums[k];
+                vectorDeltaL1[k] = nodeCount == 0 ? 0 : vectorSums[width + k] / nodeCount;
+                deltaL1 = Math.max(deltaL1, vectorDeltaL1[k]);
+            }
+
+            System.out.printf("Iteration %d: l1 delta = %g, linf delta = %g, dangling mass = %g%n",
+                    it + 1, deltaL1, deltaMax, danglingMass);
+            long activeNodes = counters.findCounter(CalcPageRank.Counters.ACTIVE_NODES).getValue();
+            if (deltaInput)
+                System.out.printf("Iteration %d: %d active nodes%n", it + 1, activeNodes);
+
+            Map<String, Object> entry = report.addIteration(it + 1);
+            entry.put("job", calcJob.getJobID().toString());
+            entry.put("millis", millis);
+            entry.put("nodes", nodeCount);
+            entry.put("deltaL1", deltaL1);
+            entry.put("deltaMax", deltaMax);
+            entry.put("danglingMass", danglingMass);
+            if (deltaInput)
+                entry.put("activeNodes", activeNodes);
+            for (int k = 0; vectors != null && k < width; ++k) {
+                entry.put("deltaL1." + vectors.getName(k), vectorDeltaL1[k]);
+                entry.put("danglingMass." + vectors.getName(k), danglingMasses[k]);
+            }
+
+            if (epsilon >= 0 && (useL1 ? deltaL1 : deltaMax) < epsilon) {
+                System.out.printf("Converged after %d iterations%n", it + 1);
+                break;
             }
         }
+
+        // Final job to join ids back to urls and write the `url|rank` text layout, once per vector
+        Job exportJob = ExportPageRank.createJob(conf, dictionaryPath, graphPath, outputPath);
+        JobRuns.waitForSuccess(exportJob);
     }
 }
@@ -0,0 +1,237 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Binary value for the page rank graph. A node is either the structure of a
+ * page (its current rank plus its out-links) or a piece of rank mass sent
+ * along one edge, the tag tells them apart so reducers never need to parse.
+ *
+ * With personalized vectors (see RankVectors) a node carries one rank per
+ * vector, and the structure the vectors whose teleport set has the page.
+ * Single rank nodes are written as before.
+ */
+public class PageRankNode implements Writable {
+    public static final byte STRUCTURE = 0;
+    public static final byte MASS = 1;
+    // Flags of the tag: followed by its pending rank change (structure only, written when
+    // there's one), and a vector of ranks instead of a single one
+    private static final byte WITH_PENDING = 2;
+    private static final byte VECTOR = 4;
+
+    private byte type = STRUCTURE;
+    private int width = 1;
+    private double[] ranks = new double[1];
+    private long teleport = 0;
+    private double pending = 0;
+    private int outDegree = 0;
+    private int[] outLinks = new int[0];
+
+    public boolean isStructure() {
+        return type == STRUCTURE;
+    }
+
+    public boolean isMass() {
+        return type == MASS;
+    }
+
+    public double getRank() {
+        return ranks[0];
+    }
+
+    public void setRank(double rank) {
+        ranks[0] = rank;
+    }
+
+    /**
+     * Number of ranks, one per personalized vector.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    public double getRank(int vector) {
+        return ranks[vector];
+    }
+
+    public void setRank(int vector, double rank) {
+        ranks[vector] = rank;
+    }
+
+    /**
+     * Bit k is set when the page is in the teleport set of vector k.
+     */
+    public long getTeleport() {
+        return teleport;
+    }
+
+    public void setTeleport(long teleport) {
+        this.teleport = teleport;
+    }
+
+    /**
+     * Change of the rank not sent to the out-links yet, see
+     * CalcPageRank.DELTA_TOLERANCE.
+     */
+    public double getPending() {
+        return pending;
+    }
+
+    public void setPending(double pending) {
+        this.pending = pending;
+    }
+
+    public int getOutDegree() {
+        return outDegree;
+    }
+
+    public int getOutLink(int idx) {
+        return outLinks[idx];
+    }
+
+    public void setMass(double mass) {
+        setWidth(1);
+        this.type = MASS;
+        this.ranks[0] = mass;
+        this.teleport = 0;
+        this.pending = 0;
+        this.outDegree = 0;
+    }
+
+    /**
+     * Mass for every vector, the first width values of masses.
+     */
+    public void setMass(double[] masses, int width) {
+        setWidth(width);
+        this.type = MASS;
+        System.arraycopy(masses, 0, ranks, 0, width);
+        this.teleport = 0;
+        this.pending = 0;
+        this.outDegree = 0;
+    }
+
+    public void setStructure(double rank) {
+        setStructure(rank, 1);
+    }
+
+    /**
+     * Structure without out-links, with the same rank for every vector.
+     */
+    public void setStructure(double rank, int width) {
+        setWidth(width);
+        this.type = STRUCTURE;
+        for (int i = 0; i < width; ++i)
+            this.ranks[i] = rank;
+        this.teleport = 0;
+        this.pending = 0;
+        this.outDegree = 0;
+    }
+
+    /**
+     * Copies the structure of another node, reusing the already allocated
+     * rank and out-link buffers of this one.
+     */
+    public void setStructure(PageRankNode other) {
+        setWidth(other.width);
+        type = STRUCTURE;
+        System.arraycopy(other.ranks, 0, ranks, 0, other.width);
+        teleport = other.teleport;
+        pending = other.pending;
+        ensureCapacity(other.outDegree);
+        System.arraycopy(other.outLinks, 0, outLinks, 0, other.outDegree);
+        outDegree = other.outDegree;
+    }
+
+    public void addOutLink(int outLink) {
+        ensureCapacity(outDegree + 1);
+        outLinks[outDegree++] = outLink;
+    }
+
+    private void setWidth(int width) {
+        if (width > ranks.length)
+            ranks = new double[width];
+        this.width = width;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= outLinks.length)
+            return;
+
+        int[] grown = new int[Math.max(capacity, outLinks.length * 2)];
+        System.arraycopy(outLinks, 0, grown, 0, outLinks.length);
+        outLinks = grown;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        boolean withPending = type == STRUCTURE && pending != 0;
+        boolean vector = width != 1 || teleport != 0;
+        out.writeByte(type | (withPending ? WITH_PENDING : 0) | (vector ? VECTOR : 0));
+        if (vector) {
+            WritableUtils.writeVInt(out, width);
+            for (int i = 0; i < width; ++i)
+                out.writeDouble(ranks[i]);
+        } else {
+            out.writeDouble(ranks[0]);
+        }
+        if (withPending)
+            out.writeDouble(pending);
+
+        if (type == STRUCTURE) {
+            if (vector)
+                WritableUtils.writeVLong(out, teleport);
+            WritableUtils.writeVInt(out, outDegree);
+            for (int i = 0; i < outDegree; ++i)
+                WritableUtils.writeVInt(out, outLinks[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        type = (byte) (tag & ~(WITH_PENDING | VECTOR));
+        boolean vector = (tag & VECTOR) != 0;
+        teleport = 0;
+        pending = 0;
+        outDegree = 0;
+
+        if (vector) {
+            setWidth(WritableUtils.readVInt(in));
+            for (int i = 0; i < width; ++i)
+                ranks[i] = in.readDouble();
+        } else {
+            setWidth(1);
+            ranks[0] = in.readDouble();
+        }
+
+        if ((tag & WITH_PENDING) != 0)
+            pending = in.readDouble();
+
+        if (type == STRUCTURE) {
+            if (vector)
+                teleport = WritableUtils.readVLong(in);
+            int degree = WritableUtils.readVInt(in);
+            ensureCapacity(degree);
+            for (int i = 0; i < degree; ++i)
+                outLinks[i] = WritableUtils.readVInt(in);
+
+            outDegree = degree;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < outDegree; ++i) {
+            if (i != 0)
+                builder.append('|');
+
+            builder.append(outLinks[i]);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Personalized page rank: K rank vectors computed by the same iterations,
+ * every node carries one rank per vector (see PageRankNode). Each vector
+ * teleports to its own set of pages, a rank of 1 - d per page in total split
+ * evenly between them, and its dangling mass goes back to that set too. A
+ * vector with the "*" set teleports to every page, the plain page rank.
+ *
+ * Teleport sets are lists of url prefixes matched against the canonical urls
+ * of the crawled pages (see CrawlUrls), e.g. "www.site.com/" for a site or a
+ * few pages for a topic:
+ *
+ *   -D pagerank.personalized.vectors=all,site,topic
+ *   -D pagerank.personalized.teleport.all=*
+ *   -D pagerank.personalized.teleport.site=www.site.com/
+ *   -D pagerank.personalized.teleport.topic=a.com/jazz,b.org/music/jazz
+ */
+public class RankVectors {
+    // Names of the vectors, also the directories of their `url|rank` output
+    public static final String VECTORS = "pagerank.personalized.vectors";
+    // Followed by the name of a vector: its comma separated url prefixes, or "*"
+    public static final String TELEPORT_PREFIX = "pagerank.personalized.teleport.";
+    public static final String TELEPORT_ALL = "*";
+
+    // Teleport sets are a bit mask per node
+    public static final int MAX_VECTORS = 64;
+
+    // Side files of every reducer (see TaskSideFiles), a counter per vector wouldn't fit: pages
+    // of the teleport set of every vector (BuildIdGraph), and the dangling mass of every vector
+    // followed by its l1 rank delta (CalcPageRank)
+    public static final String TELEPORT_SIZES_FILE = "teleport-sizes";
+    public static final String VECTOR_SUMS_FILE = "vector-sums";
+
+    private final String[] names;
+    // Null for the vectors teleporting to every page
+    private final String[][] prefixes;
+
+    private RankVectors(String[] names, String[][] prefixes) {
+        this.names = names;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * The vectors of conf, null when it has none (a single plain page rank).
+     */
+    public static RankVectors get(Configuration conf) {
+        String[] names = conf.getTrimmedStrings(VECTORS);
+        if (names.length == 0)
+            return null;
+
+        if (names.length > MAX_VECTORS)
+            throw new IllegalArgumentException("At most " + MAX_VECTORS + " personalized vectors, got " + names.length);
+
+        HashSet<String> seen = new HashSet<String>();
+        String[][] prefixes = new String[names.length][];
+        for (int i = 0; i < names.length; ++i) {
+            if (!names[i].matches("[A-Za-z0-9_-]+") || !seen.add(names[i]))
+                throw new IllegalArgumentException("Invalid or repeated vector name: '" + names[i] + "'");
+
+            String[] set = conf.getTrimmedStrings(TELEPORT_PREFIX + names[i]);
+            if (set.length == 0)
+                throw new IllegalArgumentException("No teleport set for vector " + names[i] + ", set " + TELEPORT_PREFIX + names[i]);
+
+            prefixes[i] = Arrays.asList(set).contains(TELEPORT_ALL) ? null : set;
+        }
+
+        return new RankVectors(names, prefixes);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int vector) {
+        return names[vector];
+    }
+
+    public boolean teleportsToAll(int vector) {
+        return prefixes[vector] == null;
+    }
+
+    /**
+     * Bit mask of the vectors whose teleport set has url.
+     */
+    public long teleportMask(String url) {
+        long mask = 0;
+        for (int i = 0; i < names.length; ++i) {
+            if (prefixes[i] == null) {
+                mask |= 1L << i;
+                continue;
+            }
+
+            for (String prefix : prefixes[i]) {
+                if (url.startsWith(prefix)) {
+                    mask |= 1L << i;
+                    break;
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Sums over the reducers of a finished job of the values of a side file.
+     */
+    public static double[] sumSideFiles(Configuration conf, Job job, Path outputPath, String name, int size) throws IOException {
+        double[] sums = new double[size];
+        for (double[] values : TaskSideFiles.readDoubles(conf, outputPath, name, job.getNumReduceTasks())) {
+            for (int i = 0; i < size && i < values.length; ++i)
+                sums[i] += values[i];
+        }
+
+        return sums;
+    }
+
+    /**
+     * Comma separated doubles of conf, one per vector.
+     */
+    public static double[] getDoubles(Configuration conf, String name, int size) {
+        String[] values = conf.getTrimmedStrings(name);
+        double[] doubles = new double[size];
+        for (int i = 0; i < size && i < values.length; ++i)
+            doubles[i] = Double.parseDouble(values[i]);
+
+        return doubles;
+    }
+
+    public static void setDoubles(Configuration conf, String name, double[] doubles) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < doubles.length; ++i) {
+            if (i != 0)
+                value.append(',');
+            value.append(doubles[i]);
+        }
+
+        conf.set(name, value.toString());
+    }
+}
@@ -13,4 +13,10 @@ pushd page-rank
 make clean
 JAVA8=1 make build
 gsutil cp bin/main.jar "gs://${DEFAULT_BUCKET}/page-rank.jar"
-popd 
\ No newline at end of file
+popd 
+
+pushd ingest
+make clean
+JAVA8=1 make build
+gsutil cp bin/main.jar "gs://${DEFAULT_BUCKET}/ingest.jar"
+popd
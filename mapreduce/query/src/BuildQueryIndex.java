@@ -0,0 +1,32 @@
+import java.io.File;
+import java.nio.file.Paths;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Converts the outputs of InvertedIndex and PageRank, once, into the local
+ * directory QueryEngine memory maps: the binary index plus the rank table.
+ */
+public class BuildQueryIndex {
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length != 3) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... <inv-index-output-dir> <page-rank-output-dir> <query-index-dir>");
+            return;
+        }
+
+        // QueryEngine maps the files, they must be local
+        File indexDir = new File(args[2]);
+        BinaryIndexWriter.write(conf, new Path(args[0]), new Path(indexDir.getAbsoluteFile().toURI()));
+
+        BinaryIndexReader index = new BinaryIndexReader(Paths.get(args[2]));
+        RankTable.write(conf, new Path(args[1]), index, new File(indexDir, RankTable.FILE));
+
+        System.out.println("Indexed " + index.getTermCount() + " words over " + index.getDocCount() + " pages");
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Builds a query index over a synthetic corpus and times multi word queries
+ * against an exhaustive evaluation that scores every posting, checking both
+ * give the same pages.
+ *
+ * Word w (0 based) appears in docs * min(1, 0.5 / (w + 1)^0.9) pages (Zipf),
+ * counts are geometric, ranks are pareto distributed like PageRank's. Queries
+ * mix words among the most common ones, the interesting case for pruning.
+ */
+public class QueryBenchmark {
+    private static final long SEED = 42;
+
+    private static String url(int doc) {
+        return "d" + (doc % 97) + ".com/p" + doc;
+    }
+
+    private static String word(int w) {
+        return "w" + w;
+    }
+
+    private static void generate(File textDir, File rankDir, int docs, int vocabulary) throws IOException {
+        Random random = new Random(SEED);
+        textDir.mkdirs();
+        rankDir.mkdirs();
+
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(textDir, "part-r-00000")), StandardCharsets.UTF_8))) {
+            // Words must come sorted, like a job output
+            String[] sortedWords = new String[vocabulary];
+            for (int w = 0; w < vocabulary; ++w)
+                sortedWords[w] = word(w);
+            Arrays.sort(sortedWords);
+
+            StringBuilder line = new StringBuilder();
+            for (String sortedWord : sortedWords) {
+                int w = Integer.parseInt(sortedWord.substring(1));
+                double p = Math.min(1.0, 0.5 / Math.pow(w + 1, 0.9));
+
+                line.setLength(0);
+                line.append(sortedWord).append('\t');
+                // Geometric gaps give each page probability p
+                int doc = -1;
+                while (true) {
+                    doc += p >= 1 ? 1 : 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+                    if (doc >= docs)
+                        break;
+
+                    int count = 1 + (int) (Math.log(1 - random.nextDouble()) / Math.log(0.7));
+                    line.append(url(doc)).append('|').append(count).append('|');
+                }
+
+                if (line.charAt(line.length() - 1) != '\t') {
+                    line.setLength(line.length() - 1);
+                    out.write(line.toString());
+                    out.newLine();
+                }
+            }
+        }
+
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(rankDir, "part-r-00000")), StandardCharsets.UTF_8))) {
+            for (int doc = 0; doc < docs; ++doc) {
+                double rank = 0.15 + 0.3 * Math.pow(1 - random.nextDouble(), -1 / 1.5);
+                out.write(url(doc) + "|" + rank);
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Scores every posting of every word, for reference.
+     */
+    private static List<Integer> exhaustive(QueryEngine engine, List<String> words, boolean conjunctive, int limit, long[] decoded) {
+        BinaryIndexReader index = engine.getIndex();
+        HashMap<Integer, double[]> scores = new HashMap<Integer, double[]>();
+        for (String word : words) {
+            BinaryIndexReader.Postings postings = index.getPostings(index.findTerm(word));
+            while (postings.next()) {
+                double[] score = scores.computeIfAbsent(postings.docId(), doc -> new double[2]);
+                score[0] += ImpactIndex.countScore(postings.tf());
+                score[1] += 1;
+            }
+            decoded[0] += postings.decoded();
+        }
+
+        TopK top = new TopK(limit);
+        for (Map.Entry<Integer, double[]> entry : scores.entrySet()) {
+            if (conjunctive && entry.getValue()[1] != words.size())
+                continue;
+
+            int doc = entry.getKey();
+            top.add(doc, engine.getRanks().getRank(doc) + entry.getValue()[0]);
+        }
+
+        ArrayList<Integer> docs = new ArrayList<Integer>();
+        for (int doc : top.drain())
+            docs.add(doc);
+
+        return docs;
+    }
+
+    private static boolean sameScores(QueryEngine engine, List<String> words, List<QueryEngine.Result> results, List<Integer> expected) {
+        if (results.size() != expected.size())
+            return false;
+
+        for (int i = 0; i < results.size(); ++i) {
+            int doc = engine.getIndex().findDoc(results.get(i).url);
+            if (Math.abs(score(engine, words, doc) - score(engine, words, expected.get(i))) > 1e-9)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static double score(QueryEngine engine, List<String> words, int doc) {
+        BinaryIndexReader index = engine.getIndex();
+        double score = engine.getRanks().getRank(doc);
+        for (String word : words) {
+            BinaryIndexReader.Postings postings = index.getPostings(index.findTerm(word));
+            if (postings.advance(doc) && postings.docId() == doc)
+                score += ImpactIndex.countScore(postings.tf());
+        }
+
+        return score;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 4) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... <work-dir> [docs] [vocabulary] [queries]");
+            return;
+        }
+
+        File workDir = new File(args[0]);
+        int docs = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int vocabulary = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+        File textDir = new File(workDir, "inv-index");
+        File rankDir = new File(workDir, "page-rank");
+        File indexDir = new File(workDir, "query-index");
+
+        long start = System.nanoTime();
+        generate(textDir, rankDir, docs, vocabulary);
+        Configuration conf = new Configuration();
+        conf.setBoolean(BinaryIndexWriter.VERIFY, true);
+        BinaryIndexWriter.write(conf, new Path(textDir.getAbsoluteFile().toURI()), new Path(indexDir.getAbsoluteFile().toURI()));
+        RankTable.write(conf, new Path(rankDir.getAbsoluteFile().toURI()), new BinaryIndexReader(indexDir.toPath()),
+            new File(indexDir, RankTable.FILE));
+        System.out.printf("Built index of %d pages and %d words in %.1f s%n", docs, vocabulary, (System.nanoTime() - start) / 1e9);
+
+        QueryEngine engine = new QueryEngine(Paths.get(indexDir.getPath()));
+        Random random = new Random(SEED);
+        List<List<String>> workload = new ArrayList<List<String>>();
+        for (int i = 0; i < queries; ++i) {
+            int length = 2 + random.nextInt(3);
+            ArrayList<String> words = new ArrayList<String>();
+            while (words.size() < length) {
+                String word = word((int) Math.pow(200, random.nextDouble()) - 1);
+                if (!words.contains(word))
+                    words.add(word);
+            }
+            workload.add(words);
+        }
+
+        int limit = QueryEngine.DEFAULT_LIMIT;
+        for (boolean conjunctive : new boolean[] { true, false }) {
+            // First round warms up and checks the results
+            int mismatches = 0;
+            for (List<String> words : workload) {
+                List<QueryEngine.Result> results = engine.search(words, conjunctive, limit);
+                if (!sameScores(engine, words, results, exhaustive(engine, words, conjunctive, limit, new long[1])))
+                    mismatches++;
+            }
+
+            QueryEngine.Stats stats = new QueryEngine.Stats();
+            start = System.nanoTime();
+            for (List<String> words : workload)
+                engine.search(words, conjunctive, limit, stats);
+            double prunedMicros = (System.nanoTime() - start) / 1e3 / queries;
+
+            long[] decoded = new long[1];
+            start = System.nanoTime();
+            for (List<String> words : workload)
+                exhaustive(engine, words, conjunctive, limit, decoded);
+            double exhaustiveMicros = (System.nanoTime() - start) / 1e3 / queries;
+
+            System.out.printf("%s: %.1f us/query (exhaustive %.1f us), %.1f%% of postings decoded, %d pages scored/query, %d mismatches%n",
+                conjunctive ? "and" : "or", prunedMicros, exhaustiveMicros, 100.0 * stats.decoded / decoded[0],
+                stats.scored / queries, mismatches);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Answers the queries of the search function from a local index built by
+ * BuildQueryIndex, with the same scoring: pagerank + min(count, 20) / 20.
+ * Instead of sorting every posting only the best `limit` are kept in a heap.
+ *
+ * Queries of several words add up the count score of every word, either over
+ * the pages having all of them (conjunctive) or any of them (disjunctive).
+ * Since no page scores more than its rank + 1 per word, pages, ranges of
+ * doc ids (through the max rank of the range, see RankTable) and whole
+ * posting lists (MaxScore style) that can't beat the current top `limit` are
+ * skipped, mostly without decoding them.
+ */
+public class QueryEngine {
+    public static final int DEFAULT_LIMIT = 10;
+
+    private static final int NO_MORE_DOCS = BinaryIndexReader.Postings.NO_MORE_DOCS;
+
+    private final BinaryIndexReader index;
+    private final RankTable ranks;
+
+    public static class Result {
+        public final String url;
+        public final double pagerank;
+
+        public Result(String url, double pagerank) {
+            this.url = url;
+            this.pagerank = pagerank;
+        }
+    }
+
+    /**
+     * How much work a query did, for benchmarks.
+     */
+    public static class Stats {
+        public long decoded = 0;
+        public long scored = 0;
+    }
+
+    // A word of a query and the most its count can add to a score
+    private static class Term implements Comparable<Term> {
+        final BinaryIndexReader.Postings postings;
+        final double maxScore;
+
+        Term(BinaryIndexReader.Postings postings, int maxTf) {
+            this.postings = postings;
+            this.maxScore = ImpactIndex.countScore(maxTf);
+        }
+
+        @Override
+        public int compareTo(Term other) {
+            return Double.compare(maxScore, other.maxScore);
+        }
+    }
+
+    public QueryEngine(Path dir) throws IOException {
+        index = new BinaryIndexReader(dir);
+        ranks = new RankTable(dir);
+        if (ranks.getDocCount() != index.getDocCount())
+            throw new IOException("Rank table doesn't match the index in " + dir);
+    }
+
+    public BinaryIndexReader getIndex() {
+        return index;
+    }
+
+    public RankTable getRanks() {
+        return ranks;
+    }
+
+    /**
+     * Best pages for word, limit < 0 returns every page.
+     */
+    public List<Result> search(String word, int limit) {
+        return search(Collections.singletonList(word), false, limit, null);
+    }
+
+    public List<Result> search(List<String> words, boolean conjunctive, int limit) {
+        return search(words, conjunctive, limit, null);
+    }
+
+    /**
+     * Best pages having all (conjunctive) or any of words, limit < 0 returns
+     * every page. stats, if not null, gets the work done added.
+     */
+    public List<Result> search(List<String> words, boolean conjunctive, int limit, Stats stats) {
+        ArrayList<Term> terms = new ArrayList<Term>();
+        long maxMatches = conjunctive ? Long.MAX_VALUE : 0;
+        for (String word : new LinkedHashSet<String>(lowerCase(words))) {
+            int termId = index.findTerm(word);
+            if (termId < 0) {
+                if (conjunctive)
+                    return new ArrayList<Result>();
+                continue;
+            }
+
+            Term term = new Term(index.getPostings(termId), index.getMaxTf(termId));
+            terms.add(term);
+            if (conjunctive)
+                maxMatches = Math.min(maxMatches, term.postings.docFreq());
+            else
+                maxMatches += term.postings.docFreq();
+        }
+
+        if (terms.isEmpty() || limit == 0)
+            return new ArrayList<Result>();
+
+        maxMatches = Math.min(maxMatches, index.getDocCount());
+        TopK top = new TopK((int) (limit < 0 ? maxMatches : Math.min(limit, maxMatches)));
+        Term[] sorted = terms.toArray(new Term[terms.size()]);
+        long scored = conjunctive ? intersect(sorted, top) : union(sorted, top);
+
+        if (stats != null) {
+            stats.scored += scored;
+            for (Term term : sorted)
+                stats.decoded += term.postings.decoded();
+        }
+
+        return toResults(top);
+    }
+
+    private static List<String> lowerCase(List<String> words) {
+        ArrayList<String> lower = new ArrayList<String>(words.size());
+        for (String word : words)
+            lower.add(word.toLowerCase());
+
+        return lower;
+    }
+
+    /**
+     * Pages having every term, leapfrogging from the rarest term with
+     * advance. A candidate whose rank (or the max rank of its range) plus
+     * the max score of every term can't enter top isn't looked up in the
+     * other lists. Returns the pages scored.
+     */
+    private long intersect(Term[] terms, TopK top) {
+        Arrays.sort(terms, (a, b) -> Integer.compare(a.postings.docFreq(), b.postings.docFreq()));
+
+        double maxCountScore = 0;
+        for (Term term : terms)
+            maxCountScore += term.maxScore;
+
+        long scored = 0;
+        BinaryIndexReader.Postings lead = terms[0].postings;
+        int doc = lead.next() ? lead.docId() : NO_MORE_DOCS;
+        while (doc != NO_MORE_DOCS) {
+            // Pages come in doc id order, a later page never wins a tie
+            if (ranks.getRangeMaxRank(doc) + maxCountScore <= top.threshold()) {
+                doc = lead.advance(RankTable.rangeEnd(doc)) ? lead.docId() : NO_MORE_DOCS;
+                continue;
+            }
+
+            double rank = ranks.getRank(doc);
+            if (rank + maxCountScore <= top.threshold()) {
+                doc = lead.next() ? lead.docId() : NO_MORE_DOCS;
+                continue;
+            }
+
+            int ahead = NO_MORE_DOCS;
+            for (int i = 1; i < terms.length; ++i) {
+                BinaryIndexReader.Postings postings = terms[i].postings;
+                postings.advance(doc);
+                if (postings.docId() != doc) {
+                    ahead = postings.docId();
+                    break;
+                }
+                ahead = doc;
+            }
+
+            if (terms.length == 1 || ahead == doc) {
+                double score = rank;
+                for (Term term : terms)
+                    score += ImpactIndex.countScore(term.postings.tf());
+
+                top.add(doc, score);
+                scored++;
+                doc = lead.next() ? lead.docId() : NO_MORE_DOCS;
+            } else {
+                doc = ahead == NO_MORE_DOCS || !lead.advance(ahead) ? NO_MORE_DOCS : lead.docId();
+            }
+        }
+
+        return scored;
+    }
+
+    /**
+     * Pages having any term, MaxScore style. Terms are sorted by max score,
+     * the lowest ones become non essential once their max scores plus the
+     * max rank can't enter top: candidates only come from the essential
+     * terms, the others are just probed with advance, highest first, while
+     * the page can still make it. Returns the pages scored.
+     */
+    private long union(Term[] terms, TopK top) {
+        Arrays.sort(terms);
+
+        // boundBelow[i]: max score of the terms before i
+        double[] boundBelow = new double[terms.length + 1];
+        for (int i = 0; i < terms.length; ++i)
+            boundBelow[i + 1] = boundBelow[i] + terms[i].maxScore;
+
+        double maxRank = ranks.getMaxRank();
+        for (Term term : terms)
+            term.postings.next();
+
+        long scored = 0;
+        int essential = 0;
+        while (true) {
+            double threshold = top.threshold();
+            while (essential < terms.length && maxRank + boundBelow[essential + 1] <= threshold)
+                essential++;
+            if (essential == terms.length)
+                break;
+
+            int doc = NO_MORE_DOCS;
+            for (int i = essential; i < terms.length; ++i)
+                doc = Math.min(doc, terms[i].postings.docId());
+            if (doc == NO_MORE_DOCS)
+                break;
+
+            if (ranks.getRangeMaxRank(doc) + boundBelow[terms.length] <= threshold) {
+                int rangeEnd = RankTable.rangeEnd(doc);
+                for (int i = essential; i < terms.length; ++i)
+                    terms[i].postings.advance(rangeEnd);
+                continue;
+            }
+
+            double rank = ranks.getRank(doc);
+            boolean candidate = rank + boundBelow[terms.length] > threshold;
+
+            double score = rank;
+            for (int i = essential; i < terms.length; ++i) {
+                BinaryIndexReader.Postings postings = terms[i].postings;
+                if (postings.docId() == doc) {
+                    if (candidate)
+                        score += ImpactIndex.countScore(postings.tf());
+                    postings.next();
+                }
+            }
+
+            if (!candidate)
+                continue;
+
+            for (int i = essential - 1; i >= 0; --i) {
+                if (score + boundBelow[i + 1] <= threshold) {
+                    candidate = false;
+                    break;
+                }
+
+                BinaryIndexReader.Postings postings = terms[i].postings;
+                if (postings.advance(doc) && postings.docId() == doc)
+                    score += ImpactIndex.countScore(postings.tf());
+            }
+
+            if (candidate) {
+                top.add(doc, score);
+                scored++;
+            }
+        }
+
+        return scored;
+    }
+
+    private List<Result> toResults(TopK top) {
+        int[] docs = top.drain();
+        ArrayList<Result> results = new ArrayList<Result>(docs.length);
+        for (int docId : docs)
+            results.add(new Result(index.getUrl(docId), ranks.getRank(docId)));
+
+        return results;
+    }
+}
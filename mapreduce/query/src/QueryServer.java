@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves QueryEngine over http with the api of the search cloud function:
+ * GET /?word=...&limit=... answers {"results": [{"url": ..., "pagerank": ...}]},
+ * limit defaults to 10 and -1 means every page.
+ *
+ * word can also hold several words separated by spaces, pages must have all
+ * of them unless mode=or is given.
+ */
+public class QueryServer implements HttpHandler {
+    public static final int DEFAULT_PORT = 8080;
+
+    public static final String MODE_AND = "and";
+    public static final String MODE_OR = "or";
+
+    private final QueryEngine engine;
+
+    public QueryServer(QueryEngine engine) {
+        this.engine = engine;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        HashMap<String, String> params = new HashMap<String, String>();
+        if (query == null)
+            return params;
+
+        for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals < 0)
+                continue;
+
+            String name = URLDecoder.decode(param.substring(0, equals), "UTF-8");
+            params.putIfAbsent(name, URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+        }
+
+        return params;
+    }
+
+    // Like Number(limit) in the function: empty is 0, missing or not a number is the default
+    private static int parseLimit(String limit) {
+        if (limit == null)
+            return QueryEngine.DEFAULT_LIMIT;
+
+        limit = limit.trim();
+        if (limit.isEmpty())
+            return 0;
+
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            return QueryEngine.DEFAULT_LIMIT;
+        }
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        json.append('"');
+    }
+
+    public static String toJson(List<QueryEngine.Result> results) {
+        StringBuilder json = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < results.size(); ++i) {
+            QueryEngine.Result result = results.get(i);
+            if (i != 0)
+                json.append(',');
+
+            json.append("{\"url\":");
+            appendJsonString(json, result.url);
+            json.append(",\"pagerank\":").append(result.pagerank).append('}');
+        }
+
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        String word = params.get("word");
+        List<QueryEngine.Result> results = Collections.<QueryEngine.Result>emptyList();
+        if (word != null && !word.trim().isEmpty()) {
+            List<String> words = Arrays.asList(word.trim().split("\\s+"));
+            boolean conjunctive = !MODE_OR.equals(params.getOrDefault("mode", MODE_AND));
+            results = engine.search(words, conjunctive, parseLimit(params.get("limit")));
+        }
+
+        byte[] body = toJson(results).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Error: invalid number of arguments");
+            System.out.println("Usage: ... <query-index-dir> [port]");
+            return;
+        }
+
+        QueryEngine engine = new QueryEngine(Paths.get(args[0]));
+        int port = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new QueryServer(engine));
+        server.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        server.start();
+
+        System.out.println("Serving " + engine.getIndex().getTermCount() + " words over "
+            + engine.getIndex().getDocCount() + " pages on port " + port);
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The final page ranks aligned with the doc ids of a binary index, so a
+ * query reads the rank of a posting without any lookup:
+ *   int magic, int docCount, double maxRank, double[docCount] ranks,
+ *   double[ceil(docCount / RANGE_SIZE)] max rank of every range of doc ids
+ *
+ * The max rank of a range bounds the score of all its pages, letting queries
+ * skip ranges of doc ids at once. Pages of the index missing from the
+ * PageRank output get a rank of 0.
+ */
+public class RankTable {
+    public static final String FILE = "ranks.bin";
+    public static final int MAGIC = 0x57535231;
+    public static final int RANGE_SIZE = 128;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8;
+
+    private final ByteBuffer ranks;
+    private final int docCount;
+    private final double maxRank;
+    private final int rangesStart;
+
+    public RankTable(java.nio.file.Path dir) throws IOException {
+        java.nio.file.Path file = dir.resolve(FILE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ranks = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (ranks.getInt(0) != MAGIC)
+            throw new IOException("Not a rank table: " + file);
+
+        docCount = ranks.getInt(4);
+        maxRank = ranks.getDouble(8);
+        rangesStart = HEADER_BYTES + docCount * 8;
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    public double getMaxRank() {
+        return maxRank;
+    }
+
+    public double getRank(int docId) {
+        return ranks.getDouble(HEADER_BYTES + docId * 8);
+    }
+
+    /**
+     * Max rank of the range of doc ids holding docId.
+     */
+    public double getRangeMaxRank(int docId) {
+        return ranks.getDouble(rangesStart + (docId / RANGE_SIZE) * 8);
+    }
+
+    /**
+     * First doc id after the range holding docId.
+     */
+    public static int rangeEnd(int docId) {
+        return (docId / RANGE_SIZE + 1) * RANGE_SIZE;
+    }
+
+    /**
+     * Reads the `url|rank` lines of the PageRank output and writes the rank
+     * table of index to output.
+     */
+    public static void write(Configuration conf, Path pageRankPath, BinaryIndexReader index, File output) throws IOException {
+        double[] ranks = new double[index.getDocCount()];
+
+        FileSystem fs = pageRankPath.getFileSystem(conf);
+        FileStatus[] parts = fs.globStatus(new Path(pageRankPath, "part-*"));
+        if (parts == null || parts.length == 0)
+            throw new IOException("No part files in " + pageRankPath);
+
+        for (FileStatus part : parts) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(part.getPath()), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab >= 0)
+                        line = line.substring(0, tab);
+
+                    int separator = line.lastIndexOf('|');
+                    if (separator < 0)
+                        continue;
+
+                    int docId = index.findDoc(line.substring(0, separator));
+                    if (docId >= 0)
+                        ranks[docId] = Double.parseDouble(line.substring(separator + 1));
+                }
+            }
+        }
+
+        double maxRank = 0;
+        for (double rank : ranks)
+            maxRank = Math.max(maxRank, rank);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(ranks.length);
+            out.writeDouble(maxRank);
+            for (double rank : ranks)
+                out.writeDouble(rank);
+
+            for (int start = 0; start < ranks.length; start += RANGE_SIZE) {
+                double rangeMax = 0;
+                for (int i = start; i < Math.min(start + RANGE_SIZE, ranks.length); ++i)
+                    rangeMax = Math.max(rangeMax, ranks[i]);
+                out.writeDouble(rangeMax);
+            }
+        }
+    }
+}
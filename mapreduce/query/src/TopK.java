@@ -0,0 +1,101 @@
+/**
+ * Keeps the k best (doc, score) pairs seen so far in a fixed size min heap,
+ * the root being the worst kept pair. Ties on score go to the lowest doc id.
+ */
+public class TopK {
+    private final int capacity;
+    private final int[] docs;
+    private final double[] scores;
+    private int size = 0;
+
+    public TopK(int capacity) {
+        this.capacity = capacity;
+        this.docs = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Score a new pair must beat to get in, -infinity while not full.
+     */
+    public double threshold() {
+        return isFull() && size > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    private static boolean worse(double scoreA, int docA, double scoreB, int docB) {
+        return scoreA < scoreB || (scoreA == scoreB && docA > docB);
+    }
+
+    public void add(int doc, double score) {
+        if (size < capacity) {
+            docs[size] = doc;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (capacity > 0 && worse(scores[0], docs[0], score, doc)) {
+            docs[0] = doc;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    private void swap(int i, int j) {
+        int doc = docs[i];
+        docs[i] = docs[j];
+        docs[j] = doc;
+
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(scores[i], docs[i], scores[parent], docs[parent]))
+                break;
+
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1, right = left + 1, worst = i;
+            if (left < size && worse(scores[left], docs[left], scores[worst], docs[worst]))
+                worst = left;
+            if (right < size && worse(scores[right], docs[right], scores[worst], docs[worst]))
+                worst = right;
+            if (worst == i)
+                break;
+
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    /**
+     * Empties the heap, returning the doc ids from best to worst.
+     */
+    public int[] drain() {
+        int[] sorted = new int[size];
+        while (size > 0) {
+            sorted[size - 1] = docs[0];
+            size--;
+            if (size > 0) {
+                docs[0] = docs[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+
+        return sorted;
+    }
+}